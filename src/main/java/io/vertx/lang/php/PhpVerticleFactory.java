@@ -140,6 +140,11 @@ public class PhpVerticleFactory implements VerticleFactory {
      */
     QuercusEngine engine;
 
+    /**
+     * The Quercus environment in which the verticle script was executed.
+     */
+    Env env;
+
     PhpVerticle(String script) {
       this.script = script;
     }
@@ -170,6 +175,10 @@ public class PhpVerticleFactory implements VerticleFactory {
       context.addJavaClass("Vertx\\Net\\NetClient", io.vertx.lang.php.net.NetClient.class);
       context.addJavaClass("Vertx\\Net\\NetSocket", io.vertx.lang.php.net.NetSocket.class);
       context.addJavaClass("Vertx\\Buffer", io.vertx.lang.php.buffer.Buffer.class);
+      context.addJavaClass("Vertx\\CompositeBuffer", io.vertx.lang.php.buffer.CompositeBuffer.class);
+      context.addJavaClass("Vertx\\BufferSearcher", io.vertx.lang.php.buffer.BufferSearcher.class);
+      context.addJavaClass("Vertx\\Hasher", io.vertx.lang.php.buffer.Hasher.class);
+      context.addJavaClass("Vertx\\EventBus", io.vertx.lang.php.eventbus.EventBus.class);
       context.addJavaClass("Vertx\\Logger", org.vertx.java.core.logging.Logger.class);
       context.addJavaClass("Vertx\\Pump", io.vertx.lang.php.streams.Pump.class);
       context.addJavaClass("Vertx\\ParseTools\\RecordParser", io.vertx.lang.php.parsetools.RecordParser.class);
@@ -194,6 +203,20 @@ public class PhpVerticleFactory implements VerticleFactory {
       catch (IOException e) {
         throw new VertxException(e);
       }
+      finally {
+        env = Env.getCurrent();
+      }
+    }
+
+    /**
+     * Stops the verticle.
+     */
+    @Override
+    public void stop() {
+      if (env != null) {
+        io.vertx.lang.php.eventbus.EventBus.unregisterAll(env);
+        io.vertx.lang.php.Vertx.clearCache(env);
+      }
     }
 
   }
@@ -15,9 +15,14 @@
  */
 package io.vertx.lang.php;
 
+import io.vertx.lang.php.buffer.Buffer;
+import io.vertx.lang.php.buffer.BufferAllocator;
+import io.vertx.lang.php.util.PhpTypes;
+
 import org.vertx.java.core.ServerSSLSupport;
 import org.vertx.java.core.ServerTCPSupport;
 
+import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.NumberValue;
@@ -276,6 +281,19 @@ public abstract class TCPServer<T extends ServerTCPSupport<T> & ServerSSLSupport
     return this;
   }
 
+  /**
+   * Allocates a buffer for writing to connections, from Netty's pooled
+   * allocator if the server uses pooled buffers.
+   *
+   * @param size The initial capacity of the buffer.
+   * @param direct Indicates whether to allocate a direct buffer. Defaults
+   *          to FALSE.
+   * @return A new empty buffer which must be released once written.
+   */
+  public Buffer allocateBuffer(Env env, NumberValue size, @Optional BooleanValue direct) {
+    return BufferAllocator.allocate(size.toInt(), server.isUsePooledBuffers(), PhpTypes.notNull(direct) && direct.toBoolean());
+  }
+
   public String toString() {
     return "php:Vertx\\TCPServer";
   }
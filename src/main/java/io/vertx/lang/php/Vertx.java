@@ -27,6 +27,8 @@ import io.vertx.lang.php.util.HandlerFactory;
 import io.vertx.lang.php.util.PhpTypes;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.vertx.java.core.logging.Logger;
 
@@ -50,6 +52,14 @@ import com.caucho.quercus.env.LongValue;
  */
 public final class Vertx {
 
+  /**
+   * Per-verticle caches of the converted configuration and environment.
+   * Env special values are not safe to share between the threads of a
+   * multi-threaded worker, so the caches are keyed by environment instead.
+   */
+  private static final ConcurrentMap<Env, ArrayValue> configs = new ConcurrentHashMap<Env, ArrayValue>();
+  private static final ConcurrentMap<Env, ArrayValue> envs = new ConcurrentHashMap<Env, ArrayValue>();
+
   /**
    * Creates a TCP/SSL server.
    */
@@ -275,14 +285,26 @@ public final class Vertx {
 
   /**
    * Returns the current Vertx container environment.
+   *
+   * The environment is converted once per verticle and the same immutable
+   * array is returned on subsequent calls. PHP copy-on-write semantics
+   * ensure local modifications never leak into the cached array.
    */
   public static ArrayValue env(Env env) {
-    Map<String, String> map = PhpVerticleFactory.container.env();
-    ArrayValue array = new ArrayValueImpl();
-    for (Map.Entry<String, String> entry : map.entrySet()) {
-      array.append(env.createString(entry.getKey()), env.createString(entry.getValue()));
+    ArrayValue cached = envs.get(env);
+    if (cached == null) {
+      Map<String, String> map = PhpVerticleFactory.container.env();
+      ArrayValue array = new ArrayValueImpl();
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        array.append(env.createString(entry.getKey()), env.createString(entry.getValue()));
+      }
+      cached = PhpTypes.toConstArray(env, array);
+      ArrayValue existing = envs.putIfAbsent(env, cached);
+      if (existing != null) {
+        return existing;
+      }
     }
-    return array;
+    return cached;
   }
 
   /**
@@ -301,9 +323,31 @@ public final class Vertx {
 
   /**
    * Returns the Vertx configuration.
+   *
+   * Vert.x does not support reloading verticle configuration, so the
+   * configuration is converted from JSON only once per verticle and
+   * cached for the verticle's environment. Subsequent calls are a simple
+   * lookup.
    */
   public static ArrayValue config(Env env) {
-    return PhpTypes.arrayFromJson(env, PhpVerticleFactory.container.config());
+    ArrayValue cached = configs.get(env);
+    if (cached == null) {
+      cached = PhpTypes.toConstArray(env, PhpTypes.arrayFromJson(env, PhpVerticleFactory.container.config()));
+      ArrayValue existing = configs.putIfAbsent(env, cached);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Discards the values cached for the verticle that owns the given
+   * environment. This is called when the verticle is stopped.
+   */
+  static void clearCache(Env env) {
+    configs.remove(env);
+    envs.remove(env);
   }
 
   public String toString() {
@@ -15,13 +15,21 @@
  */
 package io.vertx.lang.php.buffer;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.vertx.lang.php.Gettable;
 import io.vertx.lang.php.util.PhpTypes;
 
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
 import com.caucho.quercus.env.NumberValue;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
@@ -37,6 +45,12 @@ public class Buffer implements ArrayAccess, Countable, Gettable {
 
   private org.vertx.java.core.buffer.Buffer buffer;
 
+  /**
+   * The Netty buffer backing a buffer created with allocate(), or the view
+   * retaining an allocated buffer, until the buffer is released.
+   */
+  private ByteBuf allocated;
+
   private static final String[] properties = {"length"};
 
   public Buffer() {
@@ -51,8 +65,64 @@ public class Buffer implements ArrayAccess, Countable, Gettable {
     this.buffer = buffer;
   }
 
+  Buffer(org.vertx.java.core.buffer.Buffer buffer, ByteBuf allocated) {
+    this.buffer = buffer;
+    this.allocated = allocated;
+  }
+
+  /**
+   * Allocates an empty buffer from Netty's pooled allocator.
+   *
+   * The buffer must be released with release() once it is no longer used.
+   * Since writes to sockets are asynchronous, a buffer should only be
+   * released once it has been written, e.g. in a drain handler.
+   *
+   * @param size The initial capacity of the buffer.
+   * @param options An optional array of options. The "direct" option
+   *          allocates the buffer outside the heap, and the "pooled" option
+   *          can be set to FALSE to bypass the pool.
+   * @return A new empty buffer.
+   */
+  public static Buffer allocate(Env env, NumberValue size, @Optional ArrayValue options) {
+    boolean pooled = true;
+    boolean direct = false;
+    if (PhpTypes.notNull(options)) {
+      Value pooledOption = options.get(env.createString("pooled"));
+      if (PhpTypes.notNull(pooledOption)) {
+        pooled = pooledOption.toBoolean();
+      }
+      Value directOption = options.get(env.createString("direct"));
+      if (PhpTypes.notNull(directOption)) {
+        direct = directOption.toBoolean();
+      }
+    }
+    return BufferAllocator.allocate(size.toInt(), pooled, direct);
+  }
+
+  /**
+   * Releases a buffer created with allocate(), or a view of one. The memory
+   * is returned to the pool once the buffer and all of its slices, and any
+   * composite buffers it was appended to, have been released. The buffer is
+   * empty after it has been released. Releasing any other buffer has no
+   * effect.
+   */
+  public Buffer release(Env env) {
+    if (allocated != null) {
+      ByteBuf allocated = this.allocated;
+      this.allocated = null;
+      buffer = new org.vertx.java.core.buffer.Buffer();
+      BufferAllocator.release(this, allocated);
+    }
+    return this;
+  }
+
   public Buffer(Env env, Value value) {
-    buffer = new org.vertx.java.core.buffer.Buffer(value.toString());
+    if (value.isObject() && value.toJavaObject() instanceof Buffer) {
+      buffer = ((Buffer) value.toJavaObject()).buffer.copy();
+    }
+    else {
+      buffer = PhpTypes.toVertxBuffer(env, value);
+    }
   }
 
   @Override
@@ -171,6 +241,212 @@ public class Buffer implements ArrayAccess, Countable, Gettable {
     return this;
   }
 
+  /**
+   * Returns a range of bytes as a binary string. If no end is given the
+   * bytes up to the end of the buffer are returned.
+   */
+  public StringValue getBytes(Env env, @Optional NumberValue start, @Optional NumberValue end) {
+    int realStart = PhpTypes.notNull(start) ? start.toInt() : 0;
+    int realEnd = PhpTypes.notNull(end) ? end.toInt() : buffer.length();
+    return PhpTypes.toBinaryString(env, buffer.getByteBuf(), realStart, realEnd);
+  }
+
+  /**
+   * Sets the bytes of a binary string at the given position.
+   */
+  public Buffer setBytes(Env env, NumberValue pos, Value value) {
+    buffer.setBytes(pos.toInt(), PhpTypes.toByteBuffer(value));
+    return this;
+  }
+
+  /**
+   * Appends the bytes of a binary string to the buffer.
+   */
+  public Buffer appendBytes(Env env, Value value) {
+    appendByteBuf(Unpooled.wrappedBuffer(PhpTypes.toByteBuffer(value)));
+    return this;
+  }
+
+  /**
+   * Appends the readable bytes of a Netty buffer. Vert.x only exposes a
+   * duplicate of its underlying buffer, so writing to getByteBuf() directly
+   * would not change the length of the Vert.x buffer.
+   */
+  private void appendByteBuf(ByteBuf bytes) {
+    buffer.appendBuffer(new org.vertx.java.core.buffer.Buffer(bytes));
+  }
+
+  /**
+   * Packs values into binary data at the end of the buffer, using the same
+   * format codes as PHP's pack() function.
+   */
+  public Buffer pack(Env env, StringValue format, Value[] args) {
+    ByteBuf packed = Unpooled.buffer();
+    Packer.pack(env, packed, format.toString(), args);
+    appendByteBuf(packed);
+    return this;
+  }
+
+  /**
+   * Unpacks binary data from the buffer into an array, using the same format
+   * codes as PHP's unpack() function.
+   */
+  public Value unpack(Env env, StringValue format, @Optional NumberValue offset) {
+    return Packer.unpack(env, buffer.getByteBuf(), format.toString(), PhpTypes.notNull(offset) ? offset.toInt() : 0);
+  }
+
+  /**
+   * Returns a view of a range of the buffer without copying it. If no end is
+   * given the view extends to the end of the buffer.
+   *
+   * The slice shares memory with this buffer, so changes made through set
+   * methods on either buffer are visible in the other. A slice has a fixed
+   * length and cannot be appended to. Appending to this buffer never changes
+   * the slice's range, but the slice still reflects this buffer if an append
+   * grows it into new memory, since the slice reads through this buffer
+   * rather than holding its memory directly. Once this buffer is released
+   * the slice keeps the released contents and no longer reflects it. Slices
+   * of an allocated buffer keep its memory from being returned to the pool,
+   * so they must be released too.
+   */
+  public Buffer slice(Env env, @Optional NumberValue start, @Optional NumberValue end) {
+    int realStart = PhpTypes.notNull(start) ? start.toInt() : 0;
+    int realEnd = PhpTypes.notNull(end) ? end.toInt() : buffer.length();
+    return slice(buffer.getByteBuf(), realStart, realEnd);
+  }
+
+  private Buffer slice(ByteBuf buf, int start, int end) {
+    if (allocated == null) {
+      return new Buffer(new org.vertx.java.core.buffer.Buffer(buf.slice(start, end - start)));
+    }
+    // Vert.x wraps its ByteBuf so that it can't be released, so the view
+    // must be taken of the allocated buffer itself for retain() to count.
+    ByteBuf view = allocated.slice(start, end - start).retain();
+    return BufferAllocator.track(new Buffer(new org.vertx.java.core.buffer.Buffer(view), view));
+  }
+
+  /**
+   * Returns a retained view of the readable bytes of the allocated memory,
+   * or null if the buffer is not allocated.
+   */
+  ByteBuf retainedView() {
+    return allocated != null ? allocated.slice().retain() : null;
+  }
+
+  /**
+   * Indicates whether the buffer holds allocated memory which must be
+   * released.
+   */
+  boolean isAllocated() {
+    return allocated != null;
+  }
+
+  /**
+   * Makes the buffer responsible for releasing a retained Netty buffer.
+   */
+  void setAllocated(ByteBuf allocated) {
+    this.allocated = allocated;
+    BufferAllocator.track(this);
+  }
+
+  /**
+   * Returns the index of the first occurrence of a string or buffer, or -1
+   * if the needle does not occur in the buffer. A Vertx\BufferSearcher may
+   * also be passed to avoid preparing the needle on each call.
+   */
+  public int indexOf(Env env, Value needle, @Optional NumberValue from) {
+    ByteBuf buf = buffer.getByteBuf();
+    return toSearcher(env, needle).find(buf, PhpTypes.notNull(from) ? Math.max(from.toInt(), 0) : 0, buf.writerIndex());
+  }
+
+  /**
+   * Returns the index of the last occurrence of a string or buffer which
+   * starts at or before the given index, or -1 if the needle does not occur
+   * in the buffer.
+   */
+  public int lastIndexOf(Env env, Value needle, @Optional NumberValue from) {
+    ByteBuf buf = buffer.getByteBuf();
+    return toSearcher(env, needle).findLast(buf, PhpTypes.notNull(from) ? from.toInt() : buf.writerIndex(), buf.writerIndex());
+  }
+
+  /**
+   * Returns whether the buffer starts with a string or buffer.
+   */
+  public boolean startsWith(Env env, Value prefix) {
+    return toSearcher(env, prefix).matches(buffer.getByteBuf(), 0);
+  }
+
+  /**
+   * Returns whether the buffer ends with a string or buffer.
+   */
+  public boolean endsWith(Env env, Value suffix) {
+    BufferSearcher searcher = toSearcher(env, suffix);
+    return searcher.matches(buffer.getByteBuf(), buffer.length() - searcher.length());
+  }
+
+  /**
+   * Splits the buffer on a delimiter, returning an array of slices of the
+   * buffer. As with PHP's explode(), a positive limit sets the maximum number
+   * of slices, with the last slice containing the rest of the buffer. As with
+   * slice(), slices of an allocated buffer must be released.
+   */
+  public ArrayValue split(Env env, Value delimiter, @Optional NumberValue limit) {
+    BufferSearcher searcher = toSearcher(env, delimiter);
+    if (searcher.length() == 0) {
+      env.error("Delimiter argument to Vertx\\Buffer::split() must not be empty.");
+      return null;
+    }
+
+    int max = PhpTypes.notNull(limit) && limit.toInt() > 0 ? limit.toInt() : Integer.MAX_VALUE;
+    ByteBuf buf = buffer.getByteBuf();
+    int length = buf.writerIndex();
+    ArrayValue slices = new ArrayValueImpl();
+    int start = 0;
+    int index;
+    while (slices.getSize() < max - 1 && (index = searcher.find(buf, start, length)) >= 0) {
+      slices.append(env.wrapJava(slice(buf, start, index)));
+      start = index + searcher.length();
+    }
+    slices.append(env.wrapJava(slice(buf, start, length)));
+    return slices;
+  }
+
+  /**
+   * Hashes the contents of the buffer.
+   *
+   * @param algorithm The name of the hash algorithm. See Vertx\Hasher for
+   *          supported algorithms.
+   * @param raw Indicates whether to return the raw binary digest rather than
+   *          a lowercase hexadecimal string. Defaults to FALSE.
+   * @return The digest.
+   */
+  public StringValue hash(Env env, StringValue algorithm, @Optional BooleanValue raw) {
+    Hasher hasher = new Hasher(env, algorithm);
+    ByteBuf buf = buffer.getByteBuf();
+    hasher.update(buf, 0, buf.writerIndex());
+    return hasher.digest(env, raw);
+  }
+
+  private static BufferSearcher toSearcher(Env env, Value needle) {
+    if (needle.isObject()) {
+      Object object = needle.toJavaObject();
+      if (object instanceof BufferSearcher) {
+        return (BufferSearcher) object;
+      }
+    }
+    return new BufferSearcher(toBytes(env, needle));
+  }
+
+  /**
+   * Returns the bytes of a string or buffer value.
+   */
+  static byte[] toBytes(Env env, Value value) {
+    if (value.isObject()) {
+      return ((Buffer) value.toJavaObject(env, Buffer.class)).__toVertxBuffer().getBytes();
+    }
+    return value.toStringValue().toBytes();
+  }
+
   public Buffer getBuffer(Env env, NumberValue start, NumberValue end) {
     return new Buffer(buffer.getBuffer(start.toInt(), end.toInt()));
   }
@@ -266,6 +542,48 @@ public class Buffer implements ArrayAccess, Countable, Gettable {
     return buffer.length();
   }
 
+  /**
+   * Returns the bytes of the buffer as an array of unsigned integers.
+   */
+  public ArrayValue toArray(Env env) {
+    io.netty.buffer.ByteBuf buf = buffer.getByteBuf();
+    int length = buf.writerIndex();
+    ArrayValue array = new ArrayValueImpl(length);
+    for (int i = 0; i < length; i++) {
+      array.append(LongValue.create(buf.getUnsignedByte(i)));
+    }
+    return array;
+  }
+
+  /**
+   * Iterates over the bytes of the buffer as unsigned integers. Quercus uses
+   * this method when the buffer is iterated with foreach.
+   */
+  public Iterator<Integer> iterator() {
+    final io.netty.buffer.ByteBuf buf = buffer.getByteBuf();
+    return new Iterator<Integer>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < buf.writerIndex();
+      }
+
+      @Override
+      public Integer next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return (int) buf.getUnsignedByte(index++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
   /**
    * Copies the buffer.
    */
@@ -273,12 +591,16 @@ public class Buffer implements ArrayAccess, Countable, Gettable {
     return env.wrapJava(new Buffer(buffer.copy()));
   }
 
+  /**
+   * Returns the bytes of the buffer as a string of single byte characters,
+   * which Quercus converts back to a PHP string with the same bytes.
+   */
   public String toString() {
-    return buffer.toString();
+    return buffer.toString("ISO-8859-1");
   }
 
   public Value toString(Env env) {
-    return env.wrapJava(toString());
+    return getBytes(env, null, null);
   }
 
   public String __toString() {
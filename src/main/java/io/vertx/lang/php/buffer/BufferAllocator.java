@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Allocates buffers from Netty's pooled or unpooled allocators.
+ *
+ * Allocated buffers must be released explicitly, as must views such as slices
+ * and composite buffers which retain allocated memory. When leak detection is
+ * enabled, as it is while running PHP tests, the allocator tracks buffers
+ * which have not yet been released along with the stack trace at which they
+ * were allocated.
+ *
+ * @author Jordan Halterman
+ */
+public final class BufferAllocator {
+
+  private static volatile boolean detectLeaks;
+
+  private static final Map<Buffer, Throwable> unreleased = new ConcurrentHashMap<Buffer, Throwable>();
+
+  private BufferAllocator() {
+  }
+
+  /**
+   * Allocates a buffer with the given initial capacity.
+   *
+   * @param size The initial capacity of the buffer.
+   * @param pooled Indicates whether to allocate from the pooled allocator.
+   * @param direct Indicates whether to allocate a direct buffer.
+   * @return A new empty buffer.
+   */
+  public static Buffer allocate(int size, boolean pooled, boolean direct) {
+    ByteBufAllocator allocator = pooled ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+    ByteBuf buf = direct ? allocator.directBuffer(size) : allocator.heapBuffer(size);
+    return track(new Buffer(new org.vertx.java.core.buffer.Buffer(buf), buf));
+  }
+
+  /**
+   * Tracks a buffer which must be released, such as a view which retains an
+   * allocated buffer.
+   */
+  static Buffer track(Buffer buffer) {
+    if (detectLeaks) {
+      unreleased.put(buffer, new Throwable("Buffer allocated"));
+    }
+    return buffer;
+  }
+
+  /**
+   * Releases an allocated buffer.
+   */
+  static void release(Buffer buffer, ByteBuf buf) {
+    unreleased.remove(buffer);
+    buf.release();
+  }
+
+  /**
+   * Starts tracking allocated buffers, forgetting any buffers that were
+   * previously tracked.
+   */
+  public static void startLeakDetection() {
+    unreleased.clear();
+    detectLeaks = true;
+  }
+
+  /**
+   * Stops tracking allocated buffers.
+   *
+   * @return The allocation stack traces of any buffers that were allocated
+   *         while leak detection was enabled and have not been released.
+   */
+  public static Throwable[] stopLeakDetection() {
+    detectLeaks = false;
+    Throwable[] leaks = unreleased.values().toArray(new Throwable[0]);
+    unreleased.clear();
+    return leaks;
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.lang.php.util.PhpTypes;
+
+import java.util.Arrays;
+
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.NumberValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * A precompiled byte sequence searcher.
+ *
+ * Searches use the Boyer-Moore-Horspool algorithm, which skips ahead by up to
+ * the length of the needle on each mismatch. Searchers are immutable, so a
+ * searcher for a frequently used delimiter can be created once and shared.
+ *
+ * @author Jordan Halterman
+ */
+public class BufferSearcher {
+
+  private final byte[] needle;
+
+  /**
+   * Shift distances for forward searches, indexed by the byte aligned with
+   * the end of the needle.
+   */
+  private final int[] shift = new int[256];
+
+  /**
+   * Shift distances for backward searches, indexed by the byte aligned with
+   * the start of the needle.
+   */
+  private final int[] reverseShift = new int[256];
+
+  public BufferSearcher(Env env, Value needle) {
+    this(Buffer.toBytes(env, needle));
+  }
+
+  BufferSearcher(byte[] needle) {
+    this.needle = needle;
+    int length = needle.length;
+    Arrays.fill(shift, length);
+    Arrays.fill(reverseShift, length);
+    for (int i = 0; i < length - 1; i++) {
+      shift[needle[i] & 0xff] = length - 1 - i;
+    }
+    for (int i = length - 1; i > 0; i--) {
+      reverseShift[needle[i] & 0xff] = i;
+    }
+  }
+
+  /**
+   * Returns the length of the needle.
+   */
+  public int length() {
+    return needle.length;
+  }
+
+  /**
+   * Returns the index of the first occurrence of the needle in a buffer.
+   *
+   * @param buffer The buffer to search.
+   * @param from An optional index from which to start searching.
+   * @return The index of the needle, or -1 if the needle was not found.
+   */
+  public int indexOf(Env env, Buffer buffer, @Optional NumberValue from) {
+    ByteBuf buf = buffer.__toVertxBuffer().getByteBuf();
+    return find(buf, PhpTypes.notNull(from) ? Math.max(from.toInt(), 0) : 0, buf.writerIndex());
+  }
+
+  /**
+   * Returns the index of the last occurrence of the needle in a buffer.
+   *
+   * @param buffer The buffer to search.
+   * @param from An optional index from which to search backwards.
+   * @return The index of the needle, or -1 if the needle was not found.
+   */
+  public int lastIndexOf(Env env, Buffer buffer, @Optional NumberValue from) {
+    ByteBuf buf = buffer.__toVertxBuffer().getByteBuf();
+    return findLast(buf, PhpTypes.notNull(from) ? from.toInt() : buf.writerIndex(), buf.writerIndex());
+  }
+
+  /**
+   * Finds the first occurrence of the needle between two indexes.
+   */
+  int find(ByteBuf buf, int from, int to) {
+    int last = needle.length - 1;
+    if (last < 0) {
+      return from <= to ? from : -1;
+    }
+
+    byte lastByte = needle[last];
+    int i = from;
+    while (i + last < to) {
+      byte b = buf.getByte(i + last);
+      if (b == lastByte) {
+        int j = last - 1;
+        while (j >= 0 && buf.getByte(i + j) == needle[j]) {
+          j--;
+        }
+        if (j < 0) {
+          return i;
+        }
+      }
+      i += shift[b & 0xff];
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the last occurrence of the needle which starts at or before the
+   * given index.
+   */
+  int findLast(ByteBuf buf, int from, int to) {
+    int length = needle.length;
+    int i = Math.min(from, to - length);
+    if (length == 0) {
+      return i;
+    }
+
+    byte firstByte = needle[0];
+    while (i >= 0) {
+      byte b = buf.getByte(i);
+      if (b == firstByte) {
+        int j = 1;
+        while (j < length && buf.getByte(i + j) == needle[j]) {
+          j++;
+        }
+        if (j == length) {
+          return i;
+        }
+      }
+      i -= reverseShift[b & 0xff];
+    }
+    return -1;
+  }
+
+  /**
+   * Returns whether the needle occurs in a buffer at the given index.
+   */
+  boolean matches(ByteBuf buf, int index) {
+    if (index < 0 || index + needle.length > buf.writerIndex()) {
+      return false;
+    }
+    for (int i = 0; i < needle.length; i++) {
+      if (buf.getByte(index + i) != needle[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public String toString() {
+    return "php:Vertx\\BufferSearcher";
+  }
+
+}
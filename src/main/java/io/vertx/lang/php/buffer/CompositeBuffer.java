@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.lang.php.util.PhpTypes;
+
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.Value;
+
+/**
+ * A buffer composed of other buffers.
+ *
+ * Buffers appended to a composite buffer are added as components rather than
+ * being copied, so a message can be assembled from several buffers and
+ * written to a socket with a single gathering write. Since a composite buffer
+ * is a buffer, it can be passed anywhere a Vertx\Buffer is accepted.
+ *
+ * @author Jordan Halterman
+ */
+public class CompositeBuffer extends Buffer {
+
+  private final CompositeByteBuf composite;
+
+  public CompositeBuffer(Env env, Value[] buffers) {
+    this(Unpooled.compositeBuffer(Integer.MAX_VALUE));
+    for (Value buffer : buffers) {
+      appendBuffer(env, buffer);
+    }
+  }
+
+  private CompositeBuffer(CompositeByteBuf composite) {
+    super(new org.vertx.java.core.buffer.Buffer(composite));
+    this.composite = composite;
+  }
+
+  /**
+   * Appends a buffer as a new component without copying it. The component
+   * is a view of the bytes in the buffer at the time it's appended, so data
+   * later appended to the original buffer is not included.
+   *
+   * Allocated components are retained by the composite buffer. If an
+   * allocated buffer is appended, the composite buffer must be released as well before the
+   * allocated memory is returned to the pool.
+   *
+   * Strings are copied into a new component.
+   */
+  @Override
+  public CompositeBuffer appendBuffer(Env env, Value value) {
+    ByteBuf component;
+    if (value.isObject()) {
+      Buffer buffer = (Buffer) value.toJavaObject(env, Buffer.class);
+      component = buffer.retainedView();
+      if (component == null) {
+        component = buffer.__toVertxBuffer().getByteBuf();
+      }
+      else if (!isAllocated()) {
+        setAllocated(composite);
+      }
+    }
+    else {
+      component = Unpooled.copiedBuffer(PhpTypes.toByteBuffer(value));
+    }
+    composite.addComponent(component);
+    composite.writerIndex(composite.writerIndex() + component.readableBytes());
+    return this;
+  }
+
+  /**
+   * Returns the number of components in the buffer.
+   */
+  public int components(Env env) {
+    return composite.numComponents();
+  }
+
+  /**
+   * Returns the components of the buffer as Vert.x buffers.
+   */
+  public org.vertx.java.core.buffer.Buffer[] __toVertxBuffers() {
+    int count = composite.numComponents();
+    org.vertx.java.core.buffer.Buffer[] buffers = new org.vertx.java.core.buffer.Buffer[count];
+    for (int i = 0; i < count; i++) {
+      buffers[i] = new org.vertx.java.core.buffer.Buffer(composite.component(i));
+    }
+    return buffers;
+  }
+
+}
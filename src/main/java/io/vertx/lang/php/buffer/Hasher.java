@@ -0,0 +1,440 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.lang.php.util.PhpTypes;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * An incremental hasher.
+ *
+ * Hashers read data directly from the backing memory of buffers, so large
+ * or streamed payloads can be hashed without first being converted to PHP
+ * strings. Supported algorithms are crc32, crc32c, murmur3 (the 32 bit x86
+ * variant), xxh64, md5, sha1 and sha256.
+ *
+ * @author Jordan Halterman
+ */
+public class Hasher {
+
+  private final Algorithm algorithm;
+
+  private byte[] scratch;
+
+  public Hasher(Env env, StringValue algorithm) {
+    this.algorithm = create(algorithm.toString());
+    if (this.algorithm == null) {
+      env.error(String.format("Unsupported hash algorithm '%s'.", algorithm));
+    }
+  }
+
+  /**
+   * Returns a hasher for the given algorithm name, or null if the algorithm
+   * is not supported.
+   */
+  private static Algorithm create(String name) {
+    switch (name.toLowerCase()) {
+      case "crc32":
+      case "crc32b":
+        return new Crc32();
+      case "crc32c":
+        return new Crc32c();
+      case "murmur3":
+      case "murmur3a":
+        return new Murmur3();
+      case "xxhash":
+      case "xxh64":
+        return new XxHash64();
+      case "md5":
+        return Digest.create("MD5");
+      case "sha1":
+        return Digest.create("SHA-1");
+      case "sha256":
+        return Digest.create("SHA-256");
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Hashes a string or buffer.
+   *
+   * @param data A string or Vertx\Buffer.
+   * @return The called object.
+   */
+  public Hasher update(Env env, Value data) {
+    if (data.isObject()) {
+      ByteBuf buf = ((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer().getByteBuf();
+      update(buf, 0, buf.writerIndex());
+    }
+    else {
+      update(PhpTypes.toByteBuffer(data));
+    }
+    return this;
+  }
+
+  /**
+   * Hashes a range of a Netty buffer.
+   */
+  void update(ByteBuf buf, int index, int length) {
+    if (buf.nioBufferCount() == 1) {
+      update(buf.nioBuffer(index, length));
+    }
+    else {
+      for (ByteBuffer component : buf.nioBuffers(index, length)) {
+        update(component);
+      }
+    }
+  }
+
+  private void update(ByteBuffer bytes) {
+    if (bytes.hasArray()) {
+      algorithm.update(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
+    else {
+      // Direct buffers are copied in chunks through a scratch array.
+      if (scratch == null) {
+        scratch = new byte[8192];
+      }
+      while (bytes.hasRemaining()) {
+        int length = Math.min(bytes.remaining(), scratch.length);
+        bytes.get(scratch, 0, length);
+        algorithm.update(scratch, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Completes the hash and resets the hasher.
+   *
+   * @param raw Indicates whether to return the raw binary digest rather than
+   *          a lowercase hexadecimal string. Defaults to FALSE.
+   * @return The digest.
+   */
+  public StringValue digest(Env env, @Optional BooleanValue raw) {
+    byte[] digest = algorithm.digest();
+    if (PhpTypes.notNull(raw) && raw.toBoolean()) {
+      return env.createBinaryBuilder(digest);
+    }
+    return env.createString(toHex(digest));
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+      hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+    }
+    return new String(hex);
+  }
+
+  public String toString() {
+    return "php:Vertx\\Hasher";
+  }
+
+  /**
+   * A hash algorithm. Algorithms reset themselves when their digest is taken.
+   */
+  private static interface Algorithm {
+    void update(byte[] bytes, int offset, int length);
+    byte[] digest();
+  }
+
+  private static byte[] toBytes(int value) {
+    return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+  }
+
+  /**
+   * A java.security message digest.
+   */
+  private static class Digest implements Algorithm {
+    private final MessageDigest digest;
+
+    private Digest(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    private static Digest create(String name) {
+      try {
+        return new Digest(MessageDigest.getInstance(name));
+      }
+      catch (NoSuchAlgorithmException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      digest.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] digest() {
+      return digest.digest();
+    }
+  }
+
+  /**
+   * The CRC-32 checksum used by zlib and PHP's crc32() function.
+   */
+  private static class Crc32 implements Algorithm {
+    private final CRC32 crc = new CRC32();
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      crc.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] digest() {
+      byte[] digest = toBytes((int) crc.getValue());
+      crc.reset();
+      return digest;
+    }
+  }
+
+  /**
+   * The CRC-32C (Castagnoli) checksum.
+   */
+  private static class Crc32c implements Algorithm {
+    private static final int[] TABLE = new int[256];
+
+    static {
+      for (int i = 0; i < 256; i++) {
+        int crc = i;
+        for (int j = 0; j < 8; j++) {
+          crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82f63b78 : crc >>> 1;
+        }
+        TABLE[i] = crc;
+      }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      int crc = this.crc;
+      for (int i = offset, end = offset + length; i < end; i++) {
+        crc = TABLE[(crc ^ bytes[i]) & 0xff] ^ (crc >>> 8);
+      }
+      this.crc = crc;
+    }
+
+    @Override
+    public byte[] digest() {
+      byte[] digest = toBytes(~crc);
+      crc = 0xffffffff;
+      return digest;
+    }
+  }
+
+  /**
+   * The 32 bit x86 variant of MurmurHash3 with a seed of zero.
+   */
+  private static class Murmur3 implements Algorithm {
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private int hash;
+    private int tail;
+    private int tailLength;
+    private long length;
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      this.length += length;
+      int i = offset;
+      int end = offset + length;
+      while (tailLength > 0 && i < end) {
+        tail |= (bytes[i++] & 0xff) << (8 * tailLength++);
+        if (tailLength == 4) {
+          mix(tail);
+          tail = 0;
+          tailLength = 0;
+        }
+      }
+      for (; i + 4 <= end; i += 4) {
+        mix((bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16 | (bytes[i + 3] & 0xff) << 24);
+      }
+      while (i < end) {
+        tail |= (bytes[i++] & 0xff) << (8 * tailLength++);
+      }
+    }
+
+    private void mix(int k) {
+      hash ^= mixK(k);
+      hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+    }
+
+    private static int mixK(int k) {
+      return Integer.rotateLeft(k * C1, 15) * C2;
+    }
+
+    @Override
+    public byte[] digest() {
+      int h = hash;
+      if (tailLength > 0) {
+        h ^= mixK(tail);
+      }
+      h ^= (int) length;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      hash = 0;
+      tail = 0;
+      tailLength = 0;
+      length = 0;
+      return toBytes(h);
+    }
+  }
+
+  /**
+   * The 64 bit xxHash algorithm with a seed of zero.
+   */
+  private static class XxHash64 implements Algorithm {
+    private static final long P1 = 0x9e3779b185ebca87L;
+    private static final long P2 = 0xc2b2ae3d27d4eb4fL;
+    private static final long P3 = 0x165667b19e3779f9L;
+    private static final long P4 = 0x85ebca77c2b2ae63L;
+    private static final long P5 = 0x27d4eb2f165667c5L;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private final byte[] buffer = new byte[32];
+    private int buffered;
+    private long length;
+
+    private XxHash64() {
+      reset();
+    }
+
+    private void reset() {
+      v1 = P1 + P2;
+      v2 = P2;
+      v3 = 0;
+      v4 = -P1;
+      buffered = 0;
+      length = 0;
+    }
+
+    private static long round(long acc, long input) {
+      return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long merge(long acc, long value) {
+      return (acc ^ round(0, value)) * P1 + P4;
+    }
+
+    private static long readLong(byte[] bytes, int i) {
+      return (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 | (bytes[i + 2] & 0xffL) << 16
+          | (bytes[i + 3] & 0xffL) << 24 | (bytes[i + 4] & 0xffL) << 32 | (bytes[i + 5] & 0xffL) << 40
+          | (bytes[i + 6] & 0xffL) << 48 | (bytes[i + 7] & 0xffL) << 56;
+    }
+
+    private static long readInt(byte[] bytes, int i) {
+      return (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 | (bytes[i + 2] & 0xffL) << 16 | (bytes[i + 3] & 0xffL) << 24;
+    }
+
+    private void stripe(byte[] bytes, int i) {
+      v1 = round(v1, readLong(bytes, i));
+      v2 = round(v2, readLong(bytes, i + 8));
+      v3 = round(v3, readLong(bytes, i + 16));
+      v4 = round(v4, readLong(bytes, i + 24));
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+      this.length += length;
+      int i = offset;
+      int end = offset + length;
+      if (buffered > 0) {
+        int count = Math.min(32 - buffered, length);
+        System.arraycopy(bytes, i, buffer, buffered, count);
+        buffered += count;
+        i += count;
+        if (buffered < 32) {
+          return;
+        }
+        stripe(buffer, 0);
+        buffered = 0;
+      }
+      for (; i + 32 <= end; i += 32) {
+        stripe(bytes, i);
+      }
+      System.arraycopy(bytes, i, buffer, 0, end - i);
+      buffered = end - i;
+    }
+
+    @Override
+    public byte[] digest() {
+      long h;
+      if (length >= 32) {
+        h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = merge(h, v1);
+        h = merge(h, v2);
+        h = merge(h, v3);
+        h = merge(h, v4);
+      }
+      else {
+        h = P5;
+      }
+      h += length;
+
+      int i = 0;
+      for (; i + 8 <= buffered; i += 8) {
+        h ^= round(0, readLong(buffer, i));
+        h = Long.rotateLeft(h, 27) * P1 + P4;
+      }
+      if (i + 4 <= buffered) {
+        h ^= readInt(buffer, i) * P1;
+        h = Long.rotateLeft(h, 23) * P2 + P3;
+        i += 4;
+      }
+      for (; i < buffered; i++) {
+        h ^= (buffer[i] & 0xff) * P5;
+        h = Long.rotateLeft(h, 11) * P1;
+      }
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      h ^= h >>> 32;
+      reset();
+
+      byte[] digest = new byte[8];
+      for (int j = 0; j < 8; j++) {
+        digest[j] = (byte) (h >>> (56 - 8 * j));
+      }
+      return digest;
+    }
+  }
+
+}
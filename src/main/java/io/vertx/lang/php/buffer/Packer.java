@@ -0,0 +1,415 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.buffer;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.lang.php.util.PhpTypes;
+
+import java.nio.ByteBuffer;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * Implements PHP's pack() and unpack() format codes directly against a
+ * Netty buffer.
+ *
+ * Machine dependent codes (s, S, i, I, l, L, q, Q, f and d) use little endian
+ * byte order, as PHP does on x86 hardware.
+ *
+ * @author Jordan Halterman
+ */
+final class Packer {
+
+  /**
+   * The repeater value for the "*" repeater.
+   */
+  private static final int ALL = -1;
+
+  private Packer() {
+  }
+
+  /**
+   * Packs values into the end of a buffer. The @ code is relative to the
+   * position at which packing started.
+   */
+  static void pack(Env env, ByteBuf out, String format, Value[] args) {
+    int start = out.writerIndex();
+    int arg = 0;
+    int i = 0;
+    while (i < format.length()) {
+      char code = format.charAt(i++);
+      int count = 1;
+      if (i < format.length() && format.charAt(i) == '*') {
+        count = ALL;
+        i++;
+      }
+      else {
+        int j = i;
+        while (j < format.length() && Character.isDigit(format.charAt(j))) {
+          j++;
+        }
+        if (j > i) {
+          count = Integer.parseInt(format.substring(i, j));
+          i = j;
+        }
+      }
+
+      switch (code) {
+        case 'a':
+        case 'A':
+        case 'Z': {
+          if (arg >= args.length) {
+            env.error(String.format("Type %c: not enough arguments", code));
+            return;
+          }
+          ByteBuffer bytes = PhpTypes.toByteBuffer(args[arg++]);
+          int length = bytes.remaining();
+          int size = count == ALL ? length + (code == 'Z' ? 1 : 0) : count;
+          int copy = Math.min(length, code == 'Z' ? size - 1 : size);
+          bytes.limit(bytes.position() + Math.max(copy, 0));
+          out.writeBytes(bytes);
+          for (int k = Math.max(copy, 0); k < size; k++) {
+            out.writeByte(code == 'A' ? ' ' : 0);
+          }
+          break;
+        }
+        case 'h':
+        case 'H': {
+          if (arg >= args.length) {
+            env.error(String.format("Type %c: not enough arguments", code));
+            return;
+          }
+          String hex = args[arg++].toString();
+          int nibbles = count == ALL ? hex.length() : Math.min(count, hex.length());
+          for (int k = 0; k < nibbles; k += 2) {
+            int first = Character.digit(hex.charAt(k), 16) & 0xf;
+            int second = k + 1 < nibbles ? Character.digit(hex.charAt(k + 1), 16) & 0xf : 0;
+            out.writeByte(code == 'H' ? first << 4 | second : second << 4 | first);
+          }
+          break;
+        }
+        case 'x':
+          out.writeZero(count == ALL ? 0 : count);
+          break;
+        case 'X':
+          out.writerIndex(Math.max(start, out.writerIndex() - (count == ALL ? 0 : count)));
+          break;
+        case '@': {
+          int pos = start + (count == ALL ? 0 : count);
+          if (pos > out.writerIndex()) {
+            out.writeZero(pos - out.writerIndex());
+          }
+          else {
+            out.writerIndex(pos);
+          }
+          break;
+        }
+        default: {
+          if (sizeOf(code) == 0) {
+            env.error(String.format("Type %c: unknown format code", code));
+            return;
+          }
+          int repeat = count == ALL ? args.length - arg : count;
+          if (arg + repeat > args.length) {
+            env.error(String.format("Type %c: too few arguments", code));
+            return;
+          }
+          for (int k = 0; k < repeat; k++) {
+            writeNumber(out, code, args[arg++]);
+          }
+          break;
+        }
+      }
+    }
+
+    if (arg < args.length) {
+      env.warning(String.format("%d arguments unused", args.length - arg));
+    }
+  }
+
+  /**
+   * Unpacks values from a buffer into an array, returning FALSE if the buffer
+   * doesn't contain enough data. The @ code is relative to the offset.
+   */
+  static Value unpack(Env env, ByteBuf in, String format, int offset) {
+    ArrayValue result = new ArrayValueImpl();
+    int limit = in.writerIndex();
+    int pos = offset;
+    int i = 0;
+    while (i < format.length()) {
+      char code = format.charAt(i++);
+      int count = 1;
+      if (i < format.length() && format.charAt(i) == '*') {
+        count = ALL;
+        i++;
+      }
+      else {
+        int j = i;
+        while (j < format.length() && Character.isDigit(format.charAt(j))) {
+          j++;
+        }
+        if (j > i) {
+          count = Integer.parseInt(format.substring(i, j));
+          i = j;
+        }
+      }
+
+      int slash = format.indexOf('/', i);
+      String name = slash < 0 ? format.substring(i) : format.substring(i, slash);
+      i = slash < 0 ? format.length() : slash + 1;
+
+      switch (code) {
+        case 'a':
+        case 'A':
+        case 'Z': {
+          int size = count == ALL ? limit - pos : count;
+          if (pos + size > limit) {
+            return fail(env, code);
+          }
+          int end = pos + size;
+          int stringEnd = end;
+          if (code == 'Z') {
+            int nul = in.indexOf(pos, end, (byte) 0);
+            if (nul >= 0) {
+              stringEnd = nul;
+            }
+          }
+          else if (code == 'A') {
+            while (stringEnd > pos && isPadding(in.getByte(stringEnd - 1))) {
+              stringEnd--;
+            }
+          }
+          put(env, result, name, 1, 0, PhpTypes.toBinaryString(env, in, pos, stringEnd));
+          pos = end;
+          break;
+        }
+        case 'h':
+        case 'H': {
+          int nibbles = count == ALL ? (limit - pos) * 2 : count;
+          int size = (nibbles + 1) / 2;
+          if (pos + size > limit) {
+            return fail(env, code);
+          }
+          StringBuilder hex = new StringBuilder(nibbles);
+          for (int k = 0; k < nibbles; k++) {
+            byte b = in.getByte(pos + k / 2);
+            int nibble = (k % 2 == 0) == (code == 'H') ? (b >> 4) & 0xf : b & 0xf;
+            hex.append(Character.forDigit(nibble, 16));
+          }
+          put(env, result, name, 1, 0, env.createString(hex.toString()));
+          pos += size;
+          break;
+        }
+        case 'x':
+          pos += count == ALL ? 0 : count;
+          if (pos > limit) {
+            return fail(env, code);
+          }
+          break;
+        case 'X':
+          pos -= count == ALL ? 0 : count;
+          if (pos < offset) {
+            return fail(env, code);
+          }
+          break;
+        case '@':
+          pos = offset + (count == ALL ? 0 : count);
+          if (pos > limit) {
+            return fail(env, code);
+          }
+          break;
+        default: {
+          int size = sizeOf(code);
+          if (size == 0) {
+            env.error(String.format("Type %c: unknown format code", code));
+            return BooleanValue.FALSE;
+          }
+          int repeat = count == ALL ? (limit - pos) / size : count;
+          for (int k = 0; k < repeat; k++) {
+            if (pos + size > limit) {
+              return fail(env, code);
+            }
+            put(env, result, name, count, k, readNumber(in, code, pos));
+            pos += size;
+          }
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the size of a numeric format code, or zero if the code is not a
+   * numeric code.
+   */
+  private static int sizeOf(char code) {
+    switch (code) {
+      case 'c':
+      case 'C':
+        return 1;
+      case 's':
+      case 'S':
+      case 'n':
+      case 'v':
+        return 2;
+      case 'i':
+      case 'I':
+      case 'l':
+      case 'L':
+      case 'N':
+      case 'V':
+      case 'f':
+      case 'g':
+      case 'G':
+        return 4;
+      case 'q':
+      case 'Q':
+      case 'J':
+      case 'P':
+      case 'd':
+      case 'e':
+      case 'E':
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  private static void writeNumber(ByteBuf out, char code, Value value) {
+    switch (code) {
+      case 'c':
+      case 'C':
+        out.writeByte((int) value.toLong());
+        break;
+      case 's':
+      case 'S':
+      case 'v':
+        out.writeShort(Short.reverseBytes((short) value.toLong()));
+        break;
+      case 'n':
+        out.writeShort((int) value.toLong());
+        break;
+      case 'i':
+      case 'I':
+      case 'l':
+      case 'L':
+      case 'V':
+        out.writeInt(Integer.reverseBytes((int) value.toLong()));
+        break;
+      case 'N':
+        out.writeInt((int) value.toLong());
+        break;
+      case 'q':
+      case 'Q':
+      case 'P':
+        out.writeLong(Long.reverseBytes(value.toLong()));
+        break;
+      case 'J':
+        out.writeLong(value.toLong());
+        break;
+      case 'f':
+      case 'g':
+        out.writeInt(Integer.reverseBytes(Float.floatToIntBits((float) value.toDouble())));
+        break;
+      case 'G':
+        out.writeInt(Float.floatToIntBits((float) value.toDouble()));
+        break;
+      case 'd':
+      case 'e':
+        out.writeLong(Long.reverseBytes(Double.doubleToLongBits(value.toDouble())));
+        break;
+      case 'E':
+        out.writeLong(Double.doubleToLongBits(value.toDouble()));
+        break;
+    }
+  }
+
+  private static Value readNumber(ByteBuf in, char code, int pos) {
+    switch (code) {
+      case 'c':
+        return LongValue.create(in.getByte(pos));
+      case 'C':
+        return LongValue.create(in.getUnsignedByte(pos));
+      case 's':
+        return LongValue.create(Short.reverseBytes(in.getShort(pos)));
+      case 'S':
+      case 'v':
+        return LongValue.create(Short.reverseBytes(in.getShort(pos)) & 0xffff);
+      case 'n':
+        return LongValue.create(in.getUnsignedShort(pos));
+      case 'i':
+      case 'l':
+        return LongValue.create(Integer.reverseBytes(in.getInt(pos)));
+      case 'I':
+      case 'L':
+      case 'V':
+        return LongValue.create(Integer.reverseBytes(in.getInt(pos)) & 0xffffffffL);
+      case 'N':
+        return LongValue.create(in.getUnsignedInt(pos));
+      case 'q':
+      case 'Q':
+      case 'P':
+        return LongValue.create(Long.reverseBytes(in.getLong(pos)));
+      case 'J':
+        return LongValue.create(in.getLong(pos));
+      case 'f':
+      case 'g':
+        return DoubleValue.create(Float.intBitsToFloat(Integer.reverseBytes(in.getInt(pos))));
+      case 'G':
+        return DoubleValue.create(Float.intBitsToFloat(in.getInt(pos)));
+      case 'd':
+      case 'e':
+        return DoubleValue.create(Double.longBitsToDouble(Long.reverseBytes(in.getLong(pos))));
+      case 'E':
+        return DoubleValue.create(Double.longBitsToDouble(in.getLong(pos)));
+      default:
+        return BooleanValue.FALSE;
+    }
+  }
+
+  /**
+   * Adds an unpacked value to the result using PHP's naming rules. Unnamed
+   * values and repeated values are numbered from 1.
+   */
+  private static void put(Env env, ArrayValue result, String name, int count, int index, Value value) {
+    if (name.isEmpty()) {
+      result.put(LongValue.create(index + 1), value);
+    }
+    else if (count != 1) {
+      result.put(env.createString(name + (index + 1)), value);
+    }
+    else {
+      result.put(env.createString(name), value);
+    }
+  }
+
+  private static boolean isPadding(byte b) {
+    return b == ' ' || b == 0 || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static Value fail(Env env, char code) {
+    env.warning(String.format("Type %c: not enough input", code));
+    return BooleanValue.FALSE;
+  }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Metrics for a single event bus address.
+ *
+ * Metrics are shared by all PHP verticles in the JVM and are registered as
+ * JMX beans under io.vertx.lang.php:type=EventBus. Every address to which PHP
+ * verticles send or publish messages or at which they register handlers is
+ * tracked, so producers see the same metrics whether the consumers are local
+ * or remote. At most MAX_ADDRESSES addresses are tracked. Once the limit is
+ * reached, the address without handlers which has been idle the longest is
+ * discarded to make room, so short lived addresses don't accumulate. Messages
+ * sent to reply addresses are not tracked, but reply round trip times are
+ * recorded against the address of the original message.
+ *
+ * @author Jordan Halterman
+ */
+public class AddressMetrics implements AddressMetricsMBean {
+
+  /**
+   * The maximum number of tracked addresses.
+   */
+  static final int MAX_ADDRESSES = 1024;
+
+  private static final ConcurrentMap<String, AddressMetrics> metrics = new ConcurrentHashMap<String, AddressMetrics>();
+
+  /**
+   * Metrics for addresses which can't be tracked because the limit has been
+   * reached by addresses with handlers. Nothing is recorded.
+   */
+  private static final AddressMetrics UNTRACKED = new AddressMetrics(null) {
+    @Override
+    void recordSent(Object body) {
+    }
+
+    @Override
+    void recordPublished(Object body) {
+    }
+
+    @Override
+    void recordReceived(long nanos) {
+    }
+
+    @Override
+    void recordRejected() {
+    }
+
+    @Override
+    void recordReply(long nanos) {
+    }
+  };
+
+  private final String address;
+
+  private final AtomicLong sent = new AtomicLong();
+
+  private final AtomicLong published = new AtomicLong();
+
+  private final AtomicLong received = new AtomicLong();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final LatencyHistogram handlerTime = new LatencyHistogram();
+
+  private final LatencyHistogram replyTime = new LatencyHistogram();
+
+  /**
+   * The number of handlers registered at the address, guarded by the class
+   * lock.
+   */
+  private int handlers;
+
+  /**
+   * The time at which a message was last recorded, used to pick the address
+   * to discard once the limit is reached.
+   */
+  private volatile long lastUsed = System.nanoTime();
+
+  AddressMetrics(String address) {
+    this.address = address;
+  }
+
+  /**
+   * Returns the metrics for an address, tracking the address if it isn't
+   * already. If the limit has been reached and every tracked address has
+   * handlers, metrics which record nothing are returned.
+   */
+  static AddressMetrics get(String address) {
+    AddressMetrics addressMetrics = metrics.get(address);
+    return addressMetrics != null ? addressMetrics : track(address);
+  }
+
+  private static synchronized AddressMetrics track(String address) {
+    AddressMetrics addressMetrics = metrics.get(address);
+    if (addressMetrics == null) {
+      if (metrics.size() >= MAX_ADDRESSES && !evictIdle()) {
+        return UNTRACKED;
+      }
+      addressMetrics = new AddressMetrics(address);
+      metrics.put(address, addressMetrics);
+      addressMetrics.register();
+    }
+    return addressMetrics;
+  }
+
+  /**
+   * Starts tracking an address for a newly registered handler, returning the
+   * address's metrics. Addresses with handlers are always tracked, even if
+   * that takes the number of addresses over the limit.
+   */
+  static synchronized AddressMetrics acquire(String address) {
+    AddressMetrics addressMetrics = metrics.get(address);
+    if (addressMetrics == null) {
+      if (metrics.size() >= MAX_ADDRESSES) {
+        evictIdle();
+      }
+      addressMetrics = new AddressMetrics(address);
+      metrics.put(address, addressMetrics);
+      addressMetrics.register();
+    }
+    addressMetrics.handlers++;
+    return addressMetrics;
+  }
+
+  /**
+   * Releases an address for an unregistered handler. Once all of its
+   * handlers have been unregistered the address may be discarded to make
+   * room for other addresses.
+   */
+  static synchronized void release(String address) {
+    AddressMetrics addressMetrics = metrics.get(address);
+    if (addressMetrics != null && addressMetrics.handlers > 0) {
+      addressMetrics.handlers--;
+    }
+  }
+
+  /**
+   * Discards the address without handlers which has been idle the longest,
+   * returning false if every address has handlers. Must be called with the
+   * class lock held.
+   */
+  private static boolean evictIdle() {
+    AddressMetrics idlest = null;
+    for (AddressMetrics addressMetrics : metrics.values()) {
+      if (addressMetrics.handlers == 0 && (idlest == null || addressMetrics.lastUsed < idlest.lastUsed)) {
+        idlest = addressMetrics;
+      }
+    }
+    if (idlest == null) {
+      return false;
+    }
+    metrics.remove(idlest.address);
+    idlest.unregister();
+    return true;
+  }
+
+  /**
+   * Returns a JSON object of metrics for all addresses, keyed by address.
+   */
+  static JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    for (AddressMetrics addressMetrics : metrics.values()) {
+      json.putObject(addressMetrics.address, addressMetrics.toJsonObject());
+    }
+    return json;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server. Registration is best
+   * effort, since another module may already have registered the address.
+   */
+  private void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+    }
+    catch (JMException e) {
+      // Metrics are still available through Vertx\EventBus::metrics().
+    }
+  }
+
+  private void unregister() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+    }
+    catch (JMException e) {
+      // The metrics were never registered.
+    }
+  }
+
+  private ObjectName objectName() throws JMException {
+    return new ObjectName("io.vertx.lang.php:type=EventBus,address=" + ObjectName.quote(address));
+  }
+
+  void recordSent(Object body) {
+    lastUsed = System.nanoTime();
+    sent.incrementAndGet();
+    recordBytes(body);
+  }
+
+  void recordPublished(Object body) {
+    lastUsed = System.nanoTime();
+    published.incrementAndGet();
+    recordBytes(body);
+  }
+
+  void recordReceived(long nanos) {
+    lastUsed = System.nanoTime();
+    received.incrementAndGet();
+    handlerTime.record(nanos);
+  }
+
+  void recordRejected() {
+    rejected.incrementAndGet();
+  }
+
+  void recordReply(long nanos) {
+    replyTime.record(nanos);
+  }
+
+  /**
+   * Records the encoded size of a message body.
+   */
+  private void recordBytes(Object body) {
+    bytes.addAndGet(MessageSize.of(body));
+  }
+
+  private JsonObject toJsonObject() {
+    return new JsonObject()
+        .putNumber("sent", getSent())
+        .putNumber("published", getPublished())
+        .putNumber("received", getReceived())
+        .putNumber("bytes", getBytes())
+        .putNumber("rejected", getRejected())
+        .putObject("handlerTime", handlerTime.toJson())
+        .putObject("replyTime", replyTime.toJson());
+  }
+
+  @Override
+  public String getAddress() {
+    return address;
+  }
+
+  @Override
+  public long getSent() {
+    return sent.get();
+  }
+
+  @Override
+  public long getPublished() {
+    return published.get();
+  }
+
+  @Override
+  public long getReceived() {
+    return received.get();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  @Override
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  @Override
+  public double getHandlerTimeMean() {
+    return handlerTime.getMean();
+  }
+
+  @Override
+  public long getHandlerTimeMax() {
+    return handlerTime.getMax();
+  }
+
+  @Override
+  public long getHandlerTime99thPercentile() {
+    return handlerTime.getPercentile(99);
+  }
+
+  @Override
+  public long getReplies() {
+    return replyTime.getCount();
+  }
+
+  @Override
+  public double getReplyTimeMean() {
+    return replyTime.getMean();
+  }
+
+  @Override
+  public long getReplyTimeMax() {
+    return replyTime.getMax();
+  }
+
+  @Override
+  public long getReplyTime99thPercentile() {
+    return replyTime.getPercentile(99);
+  }
+
+}
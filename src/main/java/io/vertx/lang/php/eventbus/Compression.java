@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import com.caucho.quercus.env.Env;
+
+/**
+ * Transparent compression of large event bus messages.
+ *
+ * When compression is enabled for a verticle, string, JSON and buffer messages
+ * larger than the configured threshold are deflated and sent as buffers with a
+ * short header identifying the original message type. Message::body() detects
+ * the header and restores the original message, so compression is only
+ * suitable for messages exchanged between PHP verticles. Messages are only
+ * restored by verticles which have enabled compression themselves, and only
+ * up to a maximum decompressed size, so other senders can't make a verticle
+ * inflate arbitrary data.
+ *
+ * @author Jordan Halterman
+ */
+final class Compression {
+
+  /**
+   * Compression settings by verticle environment.
+   */
+  private static final ConcurrentMap<Env, Settings> settingsByEnv = new ConcurrentHashMap<Env, Settings>();
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte[] MAGIC = new byte[] { 0, 'v', 'x', 'z' };
+
+  private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+  /**
+   * The default maximum size of a decompressed message.
+   */
+  static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+  private static final byte TYPE_STRING = 1;
+  private static final byte TYPE_OBJECT = 2;
+  private static final byte TYPE_ARRAY = 3;
+  private static final byte TYPE_BUFFER = 4;
+
+  private static final AtomicLong compressed = new AtomicLong();
+  private static final AtomicLong decompressed = new AtomicLong();
+  private static final AtomicLong bytesIn = new AtomicLong();
+  private static final AtomicLong bytesOut = new AtomicLong();
+  private static final AtomicLong compressTime = new AtomicLong();
+  private static final AtomicLong decompressTime = new AtomicLong();
+
+  private Compression() {
+  }
+
+  /**
+   * Per verticle compression settings.
+   */
+  private static final class Settings {
+    private final int threshold;
+    private final int level;
+    private final int maxLength;
+
+    private Settings(int threshold, int level, int maxLength) {
+      this.threshold = threshold;
+      this.level = level;
+      this.maxLength = maxLength;
+    }
+  }
+
+  /**
+   * Enables compression for the verticle that owns the given environment.
+   * A threshold of zero or less disables compression.
+   */
+  static void configure(Env env, int threshold, int level, int maxLength) {
+    if (threshold > 0) {
+      settingsByEnv.put(env, new Settings(threshold, level, maxLength));
+    }
+    else {
+      settingsByEnv.remove(env);
+    }
+  }
+
+  /**
+   * Discards the settings of the verticle that owns the given environment.
+   * This is called when the verticle is stopped.
+   */
+  static void remove(Env env) {
+    settingsByEnv.remove(env);
+  }
+
+  /**
+   * Compresses a message body if compression is enabled and the body is over
+   * the threshold, otherwise returns the body as is.
+   */
+  static Object compress(Env env, Object body) {
+    Settings settings = settingsByEnv.get(env);
+    if (settings == null) {
+      return body;
+    }
+
+    // Measure the body without encoding it, so that small messages are
+    // only ever encoded once, when they're sent.
+    if (MessageSize.of(body) < settings.threshold) {
+      return body;
+    }
+
+    byte type;
+    byte[] data;
+    if (body instanceof String) {
+      type = TYPE_STRING;
+      data = ((String) body).getBytes(UTF_8);
+    }
+    else if (body instanceof Buffer) {
+      type = TYPE_BUFFER;
+      data = ((Buffer) body).getBytes();
+    }
+    else if (body instanceof JsonObject) {
+      type = TYPE_OBJECT;
+      data = ((JsonObject) body).encode().getBytes(UTF_8);
+    }
+    else if (body instanceof JsonArray) {
+      type = TYPE_ARRAY;
+      data = ((JsonArray) body).encode().getBytes(UTF_8);
+    }
+    else {
+      return body;
+    }
+
+    long start = System.nanoTime();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + HEADER_LENGTH);
+    out.write(MAGIC, 0, MAGIC.length);
+    out.write(type);
+    Deflater deflater = new Deflater(settings.level);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+    }
+    finally {
+      deflater.end();
+    }
+    compressTime.addAndGet(System.nanoTime() - start);
+
+    // Don't bother sending the compressed body if it's no smaller.
+    if (out.size() >= data.length) {
+      return body;
+    }
+    compressed.incrementAndGet();
+    bytesIn.addAndGet(data.length);
+    bytesOut.addAndGet(out.size());
+    return new Buffer(out.toByteArray());
+  }
+
+  /**
+   * Indicates whether a message body is compressed.
+   */
+  private static boolean isCompressed(Object body) {
+    if (!(body instanceof Buffer) || ((Buffer) body).length() < HEADER_LENGTH) {
+      return false;
+    }
+    Buffer buffer = (Buffer) body;
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buffer.getByte(i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Restores a message body received by the verticle that owns the given
+   * environment. Bodies are returned as is if they aren't compressed, if the
+   * verticle hasn't enabled compression, or if they can't be decompressed
+   * within the verticle's maximum length.
+   */
+  static Object decompress(Env env, Object message) {
+    Settings settings = settingsByEnv.get(env);
+    if (settings == null || !isCompressed(message)) {
+      return message;
+    }
+
+    long start = System.nanoTime();
+    Buffer body = (Buffer) message;
+    byte[] data = body.getBytes();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(data.length * 4, settings.maxLength));
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+      byte[] chunk = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(chunk);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          return body;
+        }
+        if (out.size() + length > settings.maxLength) {
+          return body;
+        }
+        out.write(chunk, 0, length);
+      }
+    }
+    catch (DataFormatException e) {
+      return body;
+    }
+    finally {
+      inflater.end();
+    }
+    decompressTime.addAndGet(System.nanoTime() - start);
+    decompressed.incrementAndGet();
+
+    switch (data[MAGIC.length]) {
+      case TYPE_STRING:
+        return new String(out.toByteArray(), UTF_8);
+      case TYPE_OBJECT:
+        return new JsonObject(new String(out.toByteArray(), UTF_8));
+      case TYPE_ARRAY:
+        return new JsonArray(new String(out.toByteArray(), UTF_8));
+      case TYPE_BUFFER:
+        return new Buffer(out.toByteArray());
+      default:
+        return body;
+    }
+  }
+
+  /**
+   * Returns JVM wide compression statistics. Times are in microseconds.
+   */
+  static JsonObject getStats() {
+    long in = bytesIn.get();
+    long out = bytesOut.get();
+    return new JsonObject()
+        .putNumber("compressed", compressed.get())
+        .putNumber("decompressed", decompressed.get())
+        .putNumber("bytesIn", in)
+        .putNumber("bytesOut", out)
+        .putNumber("ratio", in > 0 ? (double) out / in : 1.0)
+        .putNumber("compressTime", compressTime.get() / 1000)
+        .putNumber("decompressTime", decompressTime.get() / 1000);
+  }
+
+}
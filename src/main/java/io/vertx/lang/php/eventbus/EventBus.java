@@ -16,19 +16,26 @@
 package io.vertx.lang.php.eventbus;
 
 import io.vertx.lang.php.Handler;
+import io.vertx.lang.php.PhpVerticleFactory;
 import io.vertx.lang.php.ResultModifier;
+import io.vertx.lang.php.buffer.Buffer;
 import io.vertx.lang.php.util.HandlerFactory;
 import io.vertx.lang.php.util.PhpTypes;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.json.JsonArray;
 
 import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.ArrayValue;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
 import com.caucho.quercus.env.Value;
 
 /**
@@ -40,12 +47,82 @@ public final class EventBus {
 
   private org.vertx.java.core.eventbus.EventBus eventBus;
 
-  private static PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> handlers = new PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>();
+  /**
+   * Handler registries by the environment of the verticle that owns them.
+   * Quercus stores environment values in a plain HashMap, so registries are
+   * kept in a concurrent map instead to allow multi-threaded workers to
+   * register handlers safely.
+   */
+  private static final ConcurrentMap<Env, PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>> registries =
+      new ConcurrentHashMap<Env, PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>>();
+
+  /**
+   * The default maximum number of messages buffered by a paused handler.
+   */
+  private static final int DEFAULT_MAX_BUFFERED = 1024;
+
+  /**
+   * The default time after which a message stops counting towards a handler's
+   * maxConcurrent limit if it hasn't been marked as done.
+   */
+  private static final long DEFAULT_DONE_TIMEOUT = 30000;
+
+  /**
+   * The default reply timeout for requests with an in-flight limit. Without
+   * a timeout a single lost reply would hold an in-flight slot forever.
+   */
+  private static final long DEFAULT_LIMITED_TIMEOUT = 30000;
+
+  /**
+   * The default maximum number of requests queued by an in-flight limit.
+   */
+  private static final int DEFAULT_MAX_QUEUED = 1024;
 
   public EventBus(org.vertx.java.core.eventbus.EventBus eventBus) {
     this.eventBus = eventBus;
   }
 
+  /**
+   * Returns the handler registry for the verticle that owns the given
+   * environment.
+   *
+   * Each verticle has its own registry, so registering and unregistering
+   * handlers never contends with other verticles and the registry is
+   * discarded along with the verticle when it is undeployed.
+   */
+  private static PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> getRegistry(Env env) {
+    PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> registry = registries.get(env);
+    if (registry == null) {
+      registry = new PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>();
+      PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> existing = registries.putIfAbsent(env, registry);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return registry;
+  }
+
+  /**
+   * Unregisters all handlers registered by the verticle that owns the given
+   * environment and discards its request limiters and compression settings.
+   * This is called when the verticle is stopped.
+   */
+  public static void unregisterAll(Env env) {
+    PairRegistry<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> registry = registries.remove(env);
+    if (registry != null) {
+      org.vertx.java.core.eventbus.EventBus eventBus = PhpVerticleFactory.vertx.eventBus();
+      for (AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> pair : registry.pairs()) {
+        eventBus.unregisterHandler(pair.getAddress(), pair.getHandler());
+        LocalHandlers.unregister(pair.getAddress(), pair.getHandler());
+        ShardedHandlers.removeMember(pair.getHandler());
+        AddressMetrics.release(pair.getAddress());
+      }
+      registry.clear();
+    }
+    RequestLimiter.removeAll(env);
+    Compression.remove(env);
+  }
+
   /**
    * Registers an address handler in the internal handler map. This allows us to
    * unregister handlers by the object rather than an ID.
@@ -55,23 +132,67 @@ public final class EventBus {
    * @param handler
    *          A PHP callable event handler.
    */
-  private org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> createAddressHandler(Env env, String address, Value callback) {
-    return new Handler<org.vertx.java.core.eventbus.Message<Object>>(env, PhpTypes.toCallable(callback),
-        new ResultModifier<org.vertx.java.core.eventbus.Message<Object>, Message<Object>>() {
-          @Override
-          public Message<Object> modify(org.vertx.java.core.eventbus.Message<Object> message) {
-            return new Message<Object>(message);
-          }
-        });
+  private org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> createAddressHandler(Env env, Value callback,
+      final FlowControl flow, final AddressMetrics metrics) {
+    return new Handler<org.vertx.java.core.eventbus.Message<Object>>(env, PhpTypes.toCallable(callback)) {
+      @Override
+      public void handle(org.vertx.java.core.eventbus.Message<Object> message) {
+        long start = System.nanoTime();
+        Message<Object> wrapped = new Message<Object>(message, flow);
+        try {
+          getCallable().call(getEnvironment(), getEnvironment().wrapJava(wrapped));
+        }
+        catch (RuntimeException e) {
+          // The handler can no longer call done(), so free its slot.
+          wrapped.release();
+          throw e;
+        }
+        finally {
+          metrics.recordReceived(System.nanoTime() - start);
+        }
+      }
+    };
   }
 
   /**
    * Creates an address/handler pair from PHP arguments.
    */
   public AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> createAddressPair(Env env, StringValue address, Value handler) {
+    return createAddressPair(env, address, handler, null);
+  }
+
+  /**
+   * Creates a flow controlled address/handler pair from PHP arguments.
+   *
+   * Supported options are:
+   * - maxConcurrent: The maximum number of messages being handled at once.
+   * - maxBuffered: The maximum number of messages to buffer while the handler
+   *   is paused or at its concurrency limit. Defaults to 1024.
+   * - doneTimeout: The number of milliseconds after which a message which
+   *   hasn't been replied to or marked as done stops counting towards
+   *   maxConcurrent. Defaults to 30 seconds, and 0 disables the timeout.
+   */
+  private AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> createAddressPair(Env env, StringValue address, Value handler, ArrayValue options) {
     String realAddress = address.toString();
-    org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> realHandler = createAddressHandler(env, realAddress, handler);
-    return new AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>(realAddress, realHandler);
+    int maxConcurrent = 0;
+    int maxBuffered = DEFAULT_MAX_BUFFERED;
+    long doneTimeout = DEFAULT_DONE_TIMEOUT;
+    if (PhpTypes.notNull(options)) {
+      maxConcurrent = options.get(env.createString("maxConcurrent")).toInt();
+      Value buffered = options.get(env.createString("maxBuffered"));
+      if (PhpTypes.notNull(buffered)) {
+        maxBuffered = buffered.toInt();
+      }
+      Value timeout = options.get(env.createString("doneTimeout"));
+      if (PhpTypes.notNull(timeout)) {
+        doneTimeout = timeout.toLong();
+      }
+    }
+
+    AddressMetrics metrics = AddressMetrics.acquire(realAddress);
+    FlowControl flow = new FlowControl(maxConcurrent, maxBuffered, doneTimeout, metrics);
+    flow.setHandler(createAddressHandler(env, handler, maxConcurrent > 0 ? flow : null, metrics));
+    return new AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>>(realAddress, flow);
   }
 
   /**
@@ -85,25 +206,37 @@ public final class EventBus {
    *          An optional handler to be invoke when the handler registration has
    *          been propagated across the cluster. It will be invoked with a
    *          single argument that represents an error if one occurs, else null.
+   *          An array of options may be passed in place of the result handler.
+   * @param options
+   *          An optional array of flow control options, maxConcurrent and
+   *          maxBuffered.
    * @return The called object.
    */
-  public StringValue registerHandler(Env env, StringValue address, Value handler, @Optional Value resultHandler) {
+  public StringValue registerHandler(Env env, StringValue address, Value handler, @Optional Value resultHandler,
+      @Optional ArrayValue options) {
     PhpTypes.assertCallable(env, handler, "Handler argument to Vertx\\EventBus::registerHandler() must be callable.");
-    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> addressPair = createAddressPair(env, address, handler);
+    if (PhpTypes.isNull(options) && PhpTypes.notNull(resultHandler) && resultHandler.isArray()) {
+      options = resultHandler.toArrayValue(env);
+      resultHandler = null;
+    }
+    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> addressPair = createAddressPair(env, address, handler, options);
 
     if (PhpTypes.isCallable(env, resultHandler)) {
-      org.vertx.java.core.Handler<AsyncResult<Void>> resultEventHandler = HandlerFactory.createAsyncVoidHandler(env, handler);
+      org.vertx.java.core.Handler<AsyncResult<Void>> resultEventHandler = HandlerFactory.createAsyncVoidHandler(env, resultHandler);
       eventBus.registerHandler(addressPair.getAddress(), addressPair.getHandler(), resultEventHandler);
     }
     else {
       eventBus.registerHandler(addressPair.getAddress(), addressPair.getHandler());
     }
-    return env.createString(handlers.register(addressPair).toString());
+    return env.createString(getRegistry(env).register(addressPair));
   }
 
   /**
    * Registers a new local event handler.
    * 
+   * Local handlers receive messages sent on the event bus from this JVM, as
+   * well as messages sent with sendLocal() and publishLocal().
+   * 
    * @param address
    *          The address at which to register the handler.
    * @param handler
@@ -115,7 +248,99 @@ public final class EventBus {
         "Handler argument to Vertx\\EventBus::registerLocalHandler() must be callable.");
     AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> addressPair = createAddressPair(env, address, handler);
     eventBus.registerLocalHandler(addressPair.getAddress(), addressPair.getHandler());
-    return env.createString(handlers.register(addressPair).toString());
+    LocalHandlers.register(addressPair.getAddress(), new LocalHandlers.LocalHandler(env, PhpTypes.toCallable(handler),
+        (FlowControl) addressPair.getHandler(), AddressMetrics.get(addressPair.getAddress())));
+    return env.createString(getRegistry(env).register(addressPair));
+  }
+
+  /**
+   * Pauses a registered event handler.
+   * 
+   * Messages received while the handler is paused are buffered, up to the
+   * handler's maxBuffered option, and delivered once the handler is resumed.
+   * 
+   * @param handlerID
+   *          The ID of the handler to pause.
+   * @return The called object.
+   */
+  public EventBus pauseHandler(Env env, Value handlerID) {
+    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> pair = getRegistry(env).get(handlerID.toString());
+    if (pair != null && pair.getHandler() instanceof FlowControl) {
+      ((FlowControl) pair.getHandler()).pause();
+    }
+    return this;
+  }
+
+  /**
+   * Resumes a paused event handler.
+   * 
+   * @param handlerID
+   *          The ID of the handler to resume.
+   * @return The called object.
+   */
+  public EventBus resumeHandler(Env env, Value handlerID) {
+    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> pair = getRegistry(env).get(handlerID.toString());
+    if (pair != null && pair.getHandler() instanceof FlowControl) {
+      ((FlowControl) pair.getHandler()).resume();
+    }
+    return this;
+  }
+
+  /**
+   * Registers a sharded event handler.
+   * 
+   * Each verticle instance which registers a sharded handler at an address
+   * claims one of the address's shards. Messages sent to the address are routed
+   * to a shard by hashing their key, so messages with the same key are always
+   * handled in order by the same instance while different keys are handled in
+   * parallel. The verticle should be deployed with the same number of instances
+   * as there are shards. Registering more handlers than there are shards, or
+   * a different number of shards than the handlers already registered at the
+   * address, is an error. Sharding is local to the JVM, so the address and
+   * its shards are registered as local handlers.
+   * 
+   * @param address
+   *          The address at which to register the handler.
+   * @param key
+   *          Either the name of the message field containing the key, or a
+   *          callable which is passed the message and returns its key.
+   * @param handler
+   *          The handler to register. This can be any PHP callable.
+   * @param instances
+   *          The number of shards.
+   * @return The handler ID.
+   */
+  public StringValue registerShardedHandler(Env env, StringValue address, Value key, Value handler, LongValue instances) {
+    PhpTypes.assertCallable(env, handler,
+        "Handler argument to Vertx\\EventBus::registerShardedHandler() must be callable.");
+    if (!key.isString()) {
+      PhpTypes.assertCallable(env, key,
+          "Key argument to Vertx\\EventBus::registerShardedHandler() must be a field name or callable.");
+    }
+
+    ShardedHandlers.Member member;
+    try {
+      if (key.isString()) {
+        member = ShardedHandlers.join(env, address.toString(), Math.max(1, instances.toInt()), key.toString(), null);
+      }
+      else {
+        member = ShardedHandlers.join(env, address.toString(), Math.max(1, instances.toInt()), null, PhpTypes.toCallable(key));
+      }
+    }
+    catch (IllegalArgumentException e) {
+      env.error(e.getMessage());
+      return null;
+    }
+    catch (IllegalStateException e) {
+      env.error(e.getMessage());
+      return null;
+    }
+
+    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> addressPair = createAddressPair(env,
+        env.createString(member.shardAddress()), handler);
+    eventBus.registerLocalHandler(addressPair.getAddress(), addressPair.getHandler());
+    ShardedHandlers.addMember(addressPair.getHandler(), member);
+    return env.createString(getRegistry(env).register(addressPair));
   }
 
   /**
@@ -128,10 +353,12 @@ public final class EventBus {
    * @return The called object.
    */
   public EventBus unregisterHandler(Env env, Value handlerID) {
-    if (handlers.exists(handlerID.toString())) {
-      AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> pair = handlers.get(handlerID.toString());
+    AddressPair<String, org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>>> pair = getRegistry(env).unregister(handlerID.toString());
+    if (pair != null) {
       eventBus.unregisterHandler(pair.getAddress(), pair.getHandler());
-      handlers.unregister(pair);
+      LocalHandlers.unregister(pair.getAddress(), pair.getHandler());
+      ShardedHandlers.removeMember(pair.getHandler());
+      AddressMetrics.release(pair.getAddress());
     }
     return this;
   }
@@ -145,65 +372,97 @@ public final class EventBus {
    *          A mixed value message to send.
    * @param handler
    *          An optional handler to be invoked in response to the message.
+   * @param options
+   *          An optional array of request options. If given, the handler will
+   *          be invoked with the reply as the first argument or an error as the
+   *          second argument. Supported options are:
+   *          - timeout: The number of milliseconds to wait for a reply.
+   *          - maxInFlight: The maximum number of requests from this verticle
+   *            awaiting a reply from the address.
+   *          - overflow: Either "reject" (the default) to fail requests beyond
+   *            maxInFlight or "queue" to send them once earlier requests
+   *            complete.
+   *          - maxQueued: The maximum number of queued requests. Defaults to
+   *            1024. Requests beyond the limit are rejected.
+   *          If maxInFlight is given without a timeout, requests time out
+   *          after 30 seconds.
    * @return The called object.
    */
-  public EventBus send(Env env, StringValue address, Value message, @Optional Value handler) {
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public EventBus send(Env env, StringValue address, Value message, @Optional Value handler,
+      @Optional ArrayValue options) {
     boolean hasHandler = false;
     Handler<org.vertx.java.core.eventbus.Message<Object>> sendHandler = null;
+    final AddressMetrics metrics = AddressMetrics.get(address.toString());
 
     if (PhpTypes.notNull(handler)) {
       PhpTypes.assertCallable(env, handler, "Handler argument to Vertx\\EventBus::send() must be callable.");
+      if (PhpTypes.notNull(options)) {
+        sendRequest(env, address.toString(), EventBus.toMessageBody(env, message), handler, options, metrics);
+        return this;
+      }
       hasHandler = true;
+      final long start = System.nanoTime();
       sendHandler = new Handler<org.vertx.java.core.eventbus.Message<Object>>(env, PhpTypes.toCallable(handler),
           new ResultModifier<org.vertx.java.core.eventbus.Message<Object>, Message<Object>>() {
             @Override
             public Message<Object> modify(org.vertx.java.core.eventbus.Message<Object> arg) {
               return new Message<Object>(arg);
             }
-          });
+          }) {
+        @Override
+        public void handle(org.vertx.java.core.eventbus.Message<Object> reply) {
+          metrics.recordReply(System.nanoTime() - start);
+          super.handle(reply);
+        }
+      };
     }
 
-    if (message.isBoolean()) {
-      if (hasHandler) {
-        eventBus.send(address.toString(), message.toBoolean(), sendHandler);
-      }
-      else {
-        eventBus.send(address.toString(), message.toBoolean());
-      }
-    }
-    else if (message.isString()) {
-      if (hasHandler) {
-        eventBus.send(address.toString(), message.toString(), sendHandler);
-      }
-      else {
-        eventBus.send(address.toString(), message.toString());
-      }
+    Object body = EventBus.toMessageBody(env, message);
+    metrics.recordSent(body);
+    if (hasHandler) {
+      eventBus.send(address.toString(), body, (org.vertx.java.core.Handler) sendHandler);
     }
-    else if (message.isNumeric()) {
-      if (hasHandler) {
-        eventBus.send(address.toString(), message.toInt(), sendHandler);
-      }
-      else {
-        eventBus.send(address.toString(), message.toInt());
-      }
+    else {
+      eventBus.send(address.toString(), body);
     }
-    else if (message.isObject()) {
-      if (hasHandler) {
-        eventBus.send(address.toString(), (org.vertx.java.core.buffer.Buffer) message.toJavaObject(env, org.vertx.java.core.buffer.Buffer.class), sendHandler);
-      }
-      else {
-        eventBus.send(address.toString(), (org.vertx.java.core.buffer.Buffer) message.toJavaObject(env, org.vertx.java.core.buffer.Buffer.class));
+    return this;
+  }
+
+  /**
+   * Sends a request with a timeout and/or in-flight limit.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void sendRequest(Env env, final String address, final Object body, Value handler, ArrayValue options,
+      final AddressMetrics metrics) {
+    long timeout = EventBus.getTimeout(env, options);
+    RequestLimiter limiter = null;
+    int maxInFlight = options.get(env.createString("maxInFlight")).toInt();
+    if (maxInFlight > 0) {
+      boolean queue = options.get(env.createString("overflow")).toString().equals("queue");
+      Value maxQueued = options.get(env.createString("maxQueued"));
+      limiter = RequestLimiter.get(env, address, maxInFlight, queue,
+          PhpTypes.notNull(maxQueued) ? maxQueued.toInt() : DEFAULT_MAX_QUEUED);
+      if (timeout <= 0) {
+        timeout = DEFAULT_LIMITED_TIMEOUT;
       }
     }
-    else if (message.isArray()) {
-      if (hasHandler) {
-        eventBus.send(address.toString(), PhpTypes.arrayToJson(env, message), sendHandler);
-      }
-      else {
-        eventBus.send(address.toString(), PhpTypes.arrayToJson(env, message));
+
+    ReplyHandler replyHandler = new ReplyHandler(env, PhpTypes.toCallable(handler), timeout, metrics) {
+      @Override
+      protected void doSend() {
+        metrics.recordSent(body);
+        eventBus.send(address, body, (org.vertx.java.core.Handler) this);
       }
-    }
-    return this;
+    };
+    replyHandler.send(limiter);
+  }
+
+  /**
+   * Gets the reply timeout from an array of request options.
+   */
+  static long getTimeout(Env env, ArrayValue options) {
+    return options.get(env.createString("timeout")).toLong();
   }
 
   /**
@@ -216,24 +475,247 @@ public final class EventBus {
    * @return The called object.
    */
   public EventBus publish(Env env, Value address, Value message) {
-    if (message.isBoolean()) {
-      eventBus.publish(address.toString(), message.toBoolean());
+    Object body = EventBus.toMessageBody(env, message);
+    AddressMetrics.get(address.toString()).recordPublished(body);
+    eventBus.publish(address.toString(), body);
+    return this;
+  }
+
+  /**
+   * Sends a point-to-point message to a local handler.
+   * 
+   * If a handler was registered at the address with registerLocalHandler(),
+   * the message is frozen and handed to it directly without being converted
+   * to JSON and back. Otherwise the message is sent on the event bus as usual.
+   * 
+   * @param address
+   *          The address to which to send the message.
+   * @param message
+   *          A scalar or array message to send.
+   * @param handler
+   *          An optional handler to be invoked in response to the message.
+   * @return The called object.
+   */
+  public EventBus sendLocal(Env env, StringValue address, Value message, @Optional Value handler) {
+    LocalHandlers.LocalReply reply = null;
+    if (PhpTypes.notNull(handler)) {
+      PhpTypes.assertCallable(env, handler, "Handler argument to Vertx\\EventBus::sendLocal() must be callable.");
+      reply = new LocalHandlers.LocalReply(env, PhpTypes.toCallable(handler));
     }
-    else if (message.isString()) {
-      eventBus.publish(address.toString(), message.toString());
+
+    Object body = LocalHandlers.freeze(env, message, "Vertx\\EventBus::sendLocal()");
+    if (LocalHandlers.send(address.toString(), body, reply)) {
+      AddressMetrics.get(address.toString()).recordSent(null);
+      return this;
     }
-    else if (message.isNumeric()) {
-      eventBus.publish(address.toString(), message.toInt());
+    return send(env, address, message, handler, null);
+  }
+
+  /**
+   * Publishes a message to local handlers.
+   * 
+   * If any handlers were registered at the address with registerLocalHandler(),
+   * the message is frozen and handed to them directly without being converted
+   * to JSON and back. Otherwise the message is published on the event bus as
+   * usual.
+   * 
+   * @param address
+   *          The address to which to publish the message.
+   * @param message
+   *          A scalar or array message to publish.
+   * @return The called object.
+   */
+  public EventBus publishLocal(Env env, StringValue address, Value message) {
+    Object body = LocalHandlers.freeze(env, message, "Vertx\\EventBus::publishLocal()");
+    if (LocalHandlers.publish(address.toString(), body)) {
+      AddressMetrics.get(address.toString()).recordPublished(null);
+      return this;
     }
-    else if (message.isObject()) {
-      eventBus.publish(address.toString(), (org.vertx.java.core.buffer.Buffer) message.toJavaObject(env, org.vertx.java.core.buffer.Buffer.class));
+    return publish(env, address, message);
+  }
+
+  /**
+   * Sends a batch of point-to-point messages on the bus.
+   * 
+   * All messages are converted and dispatched in a single call, avoiding the
+   * cost of calling send() from a PHP loop.
+   * 
+   * @param address
+   *          The address to which to send the messages.
+   * @param messages
+   *          An array of mixed value messages to send.
+   * @param handler
+   *          An optional handler to be invoked in response to each message.
+   * @param coalesce
+   *          Indicates whether to coalesce all messages into a single array
+   *          message. Defaults to false.
+   * @return The called object.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public EventBus sendBatch(Env env, StringValue address, ArrayValue messages, @Optional Value handler,
+      @Optional Value coalesce) {
+    String realAddress = address.toString();
+    AddressMetrics metrics = AddressMetrics.get(realAddress);
+    org.vertx.java.core.Handler sendHandler = null;
+    if (PhpTypes.notNull(handler)) {
+      PhpTypes.assertCallable(env, handler, "Handler argument to Vertx\\EventBus::sendBatch() must be callable.");
+      sendHandler = new Handler<org.vertx.java.core.eventbus.Message<Object>>(env, PhpTypes.toCallable(handler),
+          new ResultModifier<org.vertx.java.core.eventbus.Message<Object>, Message<Object>>() {
+            @Override
+            public Message<Object> modify(org.vertx.java.core.eventbus.Message<Object> arg) {
+              return new Message<Object>(arg);
+            }
+          });
+    }
+
+    if (PhpTypes.notNull(coalesce) && coalesce.toBoolean()) {
+      Object batch = Compression.compress(env, EventBus.toBatchBody(env, messages));
+      metrics.recordSent(batch);
+      if (sendHandler != null) {
+        eventBus.send(realAddress, batch, sendHandler);
+      }
+      else {
+        eventBus.send(realAddress, batch);
+      }
     }
-    else if (message.isArray()) {
-      eventBus.publish(address.toString(), PhpTypes.arrayToJson(env, message));
+    else {
+      Iterator<Value> iter = messages.getValueIterator(env);
+      while (iter.hasNext()) {
+        Object body = EventBus.toMessageBody(env, iter.next());
+        metrics.recordSent(body);
+        if (sendHandler != null) {
+          eventBus.send(realAddress, body, sendHandler);
+        }
+        else {
+          eventBus.send(realAddress, body);
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Publishes a batch of messages to the event bus.
+   * 
+   * All messages are converted and dispatched in a single call, avoiding the
+   * cost of calling publish() from a PHP loop.
+   * 
+   * @param address
+   *          The address to which to publish the messages.
+   * @param messages
+   *          An array of mixed value messages to publish.
+   * @param coalesce
+   *          Indicates whether to coalesce all messages into a single array
+   *          message. Defaults to false.
+   * @return The called object.
+   */
+  public EventBus publishBatch(Env env, StringValue address, ArrayValue messages, @Optional Value coalesce) {
+    String realAddress = address.toString();
+    AddressMetrics metrics = AddressMetrics.get(realAddress);
+    if (PhpTypes.notNull(coalesce) && coalesce.toBoolean()) {
+      Object batch = Compression.compress(env, EventBus.toBatchBody(env, messages));
+      metrics.recordPublished(batch);
+      eventBus.publish(realAddress, batch);
+    }
+    else {
+      Iterator<Value> iter = messages.getValueIterator(env);
+      while (iter.hasNext()) {
+        Object body = EventBus.toMessageBody(env, iter.next());
+        metrics.recordPublished(body);
+        eventBus.publish(realAddress, body);
+      }
     }
     return this;
   }
 
+  /**
+   * Returns event bus metrics for all addresses used by PHP verticles.
+   *
+   * Metrics are returned as an array keyed by address. Handler and reply times
+   * are in microseconds.
+   *
+   * @return An array of metrics.
+   */
+  public static Value metrics(Env env) {
+    return PhpTypes.fromJava(env, AddressMetrics.toJson());
+  }
+
+  /**
+   * Enables compression of large messages sent from this verticle.
+   *
+   * String, array and buffer messages larger than the threshold are deflated
+   * before being sent and transparently restored by Message::body(). Since
+   * compressed messages are sent as buffers, compression should only be used
+   * for messages consumed by PHP verticles, and those verticles must enable
+   * compression too in order to restore them.
+   *
+   * @param threshold
+   *          The minimum message size in bytes to compress. A threshold of zero
+   *          disables compression.
+   * @param level
+   *          An optional deflate compression level from 1 to 9. Defaults to 6.
+   * @param maxLength
+   *          An optional maximum size in bytes of received messages once
+   *          decompressed. Larger messages are left compressed. Defaults to
+   *          16 MB.
+   * @return The called object.
+   */
+  public EventBus setCompression(Env env, LongValue threshold, @Optional("6") LongValue level,
+      @Optional Value maxLength) {
+    Compression.configure(env, threshold.toInt(), level.toInt(),
+        PhpTypes.notNull(maxLength) ? maxLength.toInt() : Compression.DEFAULT_MAX_LENGTH);
+    return this;
+  }
+
+  /**
+   * Returns message compression statistics.
+   *
+   * The result contains the number of messages compressed and decompressed,
+   * the total bytes before and after compression, the compression ratio and
+   * the total time spent compressing and decompressing in microseconds.
+   *
+   * @return An array of statistics.
+   */
+  public static Value compressionStats(Env env) {
+    return PhpTypes.fromJava(env, Compression.getStats());
+  }
+
+  /**
+   * Returns shard routing statistics for an address.
+   *
+   * The result contains the number of shards, the number of messages routed
+   * to each shard, and the skew, which is the ratio of the busiest shard's
+   * message count to the mean.
+   *
+   * @param address
+   *          The address of the sharded handlers.
+   * @return An array of statistics, or NULL if no sharded handlers are
+   *         registered at the address.
+   */
+  public static Value shardMetrics(Env env, StringValue address) {
+    return PhpTypes.fromJava(env, ShardedHandlers.getStats(address.toString()));
+  }
+
+  /**
+   * Periodically publishes event bus metrics to an address.
+   *
+   * @param address
+   *          The address to which to publish metrics.
+   * @param interval
+   *          The publish interval in milliseconds.
+   * @return The periodic timer ID, which can be passed to Vertx::cancelTimer().
+   */
+  public LongValue publishMetrics(Env env, StringValue address, LongValue interval) {
+    final String realAddress = address.toString();
+    long timerID = PhpVerticleFactory.vertx.setPeriodic(interval.toLong(), new org.vertx.java.core.Handler<Long>() {
+      @Override
+      public void handle(Long timerID) {
+        eventBus.publish(realAddress, AddressMetrics.toJson());
+      }
+    });
+    return LongValue.create(timerID);
+  }
+
   /**
    * Closes the event bus.
    * 
@@ -248,6 +730,58 @@ public final class EventBus {
     eventBus.close(HandlerFactory.createAsyncVoidHandler(env, handler));
   }
 
+  /**
+   * Converts a PHP message to an event bus message body.
+   *
+   * Arrays are always sent as JSON objects so that consumers in other
+   * languages receive a consistent message type. Scalars are converted
+   * without losing precision. Vertx\Buffer messages are unwrapped and
+   * the underlying Vert.x buffer is handed to the event bus as is. Large
+   * bodies are compressed if compression is enabled.
+   */
+  static Object toMessageBody(Env env, Value message) {
+    return Compression.compress(env, EventBus.convertMessageBody(env, message));
+  }
+
+  /**
+   * Converts a PHP message to an uncompressed event bus message body.
+   */
+  private static Object convertMessageBody(Env env, Value message) {
+    message = message.toValue();
+    if (message.isArray()) {
+      return PhpTypes.arrayToJson(env, message);
+    }
+    else if (message.isObject()) {
+      Object object = message.toJavaObject();
+      if (object instanceof Buffer) {
+        return ((Buffer) object).__toVertxBuffer();
+      }
+      return object;
+    }
+    return PhpTypes.toJava(env, message);
+  }
+
+  /**
+   * Coalesces a batch of PHP messages into a single JSON array message.
+   *
+   * Consumers receive the batch as a PHP array of messages. Buffers are
+   * embedded in the array as binary strings.
+   */
+  static JsonArray toBatchBody(Env env, Value messages) {
+    JsonArray batch = new JsonArray();
+    Iterator<Value> iter = messages.getValueIterator(env);
+    while (iter.hasNext()) {
+      Object body = EventBus.convertMessageBody(env, iter.next());
+      if (body instanceof org.vertx.java.core.buffer.Buffer) {
+        batch.addBinary(((org.vertx.java.core.buffer.Buffer) body).getBytes());
+      }
+      else {
+        batch.add(body);
+      }
+    }
+    return batch;
+  }
+
   public String toString() {
     return "php:Vertx\\EventBus";
   }
@@ -255,22 +789,21 @@ public final class EventBus {
   /**
    * A registry of current eventbus handlers.
    *
+   * The registry is safe for concurrent use, which is required for
+   * multi-threaded worker verticles.
+   *
    * @author Jordan Halterman
    *
    * @param <A> An address pair address type.
    * @param <H> An address pair handler type.
    */
   static private class PairRegistry<A, H> {
-    private Map<UUID, AddressPair<A, H>> registry;
-
-    public PairRegistry() {
-      registry = new HashMap<UUID, AddressPair<A, H>>();
-    }
+    private final ConcurrentMap<String, AddressPair<A, H>> registry = new ConcurrentHashMap<String, AddressPair<A, H>>();
 
     /**
      * Registers a new pair.
      */
-    public UUID register(AddressPair<A, H> pair) {
+    public String register(AddressPair<A, H> pair) {
       registry.put(pair.getIdentifier(), pair);
       return pair.getIdentifier();
     }
@@ -278,48 +811,45 @@ public final class EventBus {
     /**
      * Checks whether a pair with the given ID exists in the registry.
      */
-    public boolean exists(UUID id) {
+    public boolean exists(String id) {
       return registry.containsKey(id);
     }
 
     /**
-     * Checks whether a pair with the given ID exists in the registry.
+     * Gets an address pair by ID.
      */
-    public boolean exists(String id) {
-      return exists(UUID.fromString(id));
+    public AddressPair<A, H> get(String id) {
+      return registry.get(id);
     }
 
     /**
-     * Gets an address pair by ID.
+     * Unregisters an address pair by ID.
+     *
+     * @return The unregistered pair, or null if no pair was registered.
      */
-    public AddressPair<A, H> get(UUID id) {
-      if (!registry.containsKey(id)) {
-        return null;
-      }
-      return registry.get(id);
+    public AddressPair<A, H> unregister(String id) {
+      return registry.remove(id);
     }
 
     /**
-     * Gets an address pair by ID.
+     * Unregisters an address pair.
      */
-    public AddressPair<A, H> get(String id) {
-      return get(UUID.fromString(id));
+    public AddressPair<A, H> unregister(AddressPair<A, H> pair) {
+      return unregister(pair.getIdentifier());
     }
 
     /**
-     * Unregisters an address pair by ID.
+     * Returns all registered pairs.
      */
-    public void unregister(UUID id) {
-      if (registry.containsKey(id)) {
-        registry.remove(id);
-      }
+    public Collection<AddressPair<A, H>> pairs() {
+      return registry.values();
     }
 
     /**
-     * Unregisters an address pair by ID.
+     * Removes all pairs from the registry.
      */
-    public void unregister(AddressPair<A, H> pair) {
-      unregister(pair.getIdentifier());
+    public void clear() {
+      registry.clear();
     }
   }
 
@@ -332,20 +862,25 @@ public final class EventBus {
    * @param <H> A handler type.
    */
   static private class AddressPair<L, R> {
+    /**
+     * A counter from which unique pair identifiers are generated.
+     */
+    private static final AtomicLong counter = new AtomicLong();
+
     private L address;
     private R handler;
-    private UUID id;
+    private String id;
 
     public AddressPair(L address, R handler) {
       this.address = address;
       this.handler = handler;
-      this.id = UUID.randomUUID();
+      this.id = Long.toString(counter.incrementAndGet());
     }
 
     /**
      * Returns the unique pair identifier.
      */
-    public UUID getIdentifier() {
+    public String getIdentifier() {
       return id;
     }
 
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import io.vertx.lang.php.PhpVerticleFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Flow control for a registered event handler.
+ *
+ * Messages are passed on to the handler unless the handler is paused or has
+ * reached its maximum number of concurrent messages, in which case they are
+ * buffered up to a limit and rejected beyond it. Rejected messages which
+ * expect a reply are replied to with a rejection marker. A message stops
+ * counting towards the concurrency limit once Message::done() is called, which
+ * happens automatically when the message is replied to, when the handler
+ * throws an exception, or when the done timeout expires.
+ *
+ * Messages to a multi-threaded worker may arrive and complete on any of its
+ * threads, so the flow control state is guarded by its lock. Messages are
+ * always passed on to the handler or rejected outside of the lock.
+ *
+ * @author Jordan Halterman
+ */
+class FlowControl implements org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> {
+
+  /**
+   * The field of the reply sent for rejected messages.
+   */
+  static final String REJECTED_FIELD = "vertx.rejected";
+
+  private static final String REJECTED_MESSAGE = "Message rejected because the handler's buffer is full.";
+
+  /**
+   * A message delivered by sendLocal() or publishLocal().
+   */
+  interface LocalDelivery extends Runnable {
+
+    /**
+     * Replies to the sender, if any, with the given rejection.
+     */
+    void reject(JsonObject rejection);
+
+  }
+
+  private org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> handler;
+
+  private final int maxConcurrent;
+
+  private final int maxBuffered;
+
+  private final long doneTimeout;
+
+  private final AddressMetrics metrics;
+
+  /**
+   * Buffered event bus messages and local deliveries.
+   */
+  private final Deque<Object> buffer = new ArrayDeque<Object>();
+
+  private int active;
+
+  private boolean paused;
+
+  private boolean draining;
+
+  FlowControl(int maxConcurrent, int maxBuffered, long doneTimeout, AddressMetrics metrics) {
+    this.maxConcurrent = maxConcurrent;
+    this.maxBuffered = maxBuffered;
+    this.doneTimeout = doneTimeout;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the reply sent for a rejected message.
+   */
+  static JsonObject rejection() {
+    return new JsonObject().putString(REJECTED_FIELD, REJECTED_MESSAGE);
+  }
+
+  /**
+   * Returns the reason a message was rejected if the given reply body is a
+   * rejection, otherwise null.
+   */
+  static String getRejection(Object body) {
+    if (body instanceof JsonObject && ((JsonObject) body).size() == 1) {
+      Object reason = ((JsonObject) body).getField(REJECTED_FIELD);
+      if (reason instanceof String) {
+        return (String) reason;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sets the handler to which messages are passed.
+   */
+  void setHandler(org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public void handle(org.vertx.java.core.eventbus.Message<Object> message) {
+    submit(message);
+  }
+
+  /**
+   * Handles a message delivered by sendLocal() or publishLocal(). Local
+   * handlers have no concurrency limit, so local deliveries are only
+   * buffered while the handler is paused.
+   */
+  void handleLocal(LocalDelivery delivery) {
+    submit(delivery);
+  }
+
+  private void submit(Object message) {
+    boolean dispatch;
+    synchronized (this) {
+      dispatch = !paused && acquire(message);
+      if (!dispatch && buffer.size() < maxBuffered) {
+        buffer.add(message);
+        return;
+      }
+    }
+
+    if (dispatch) {
+      dispatch(message);
+    }
+    else {
+      metrics.recordRejected();
+      reject(message);
+    }
+  }
+
+  /**
+   * Takes a slot in the concurrency limit for a message if one is free.
+   * Local deliveries don't count towards the limit. Must be called with the
+   * lock held.
+   */
+  private boolean acquire(Object message) {
+    if (maxConcurrent == 0 || message instanceof LocalDelivery) {
+      return true;
+    }
+    if (active < maxConcurrent) {
+      active++;
+      return true;
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void reject(Object message) {
+    if (message instanceof LocalDelivery) {
+      ((LocalDelivery) message).reject(rejection());
+    }
+    else {
+      org.vertx.java.core.eventbus.Message<Object> busMessage = (org.vertx.java.core.eventbus.Message<Object>) message;
+      if (busMessage.replyAddress() != null) {
+        busMessage.reply(rejection());
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void dispatch(Object message) {
+    if (message instanceof LocalDelivery) {
+      ((LocalDelivery) message).run();
+      return;
+    }
+    handler.handle((org.vertx.java.core.eventbus.Message<Object>) message);
+  }
+
+  /**
+   * Starts the done timeout for a message counting towards the concurrency
+   * limit, returning the timer ID or -1 if there is no timeout.
+   */
+  long watch(final Message<?> message) {
+    if (doneTimeout <= 0) {
+      return -1;
+    }
+    return PhpVerticleFactory.vertx.setTimer(doneTimeout, new org.vertx.java.core.Handler<Long>() {
+      @Override
+      public void handle(Long timerID) {
+        message.timedOut();
+      }
+    });
+  }
+
+  /**
+   * Marks a message as done, passing on buffered messages if possible.
+   */
+  void complete() {
+    if (maxConcurrent > 0) {
+      synchronized (this) {
+        active--;
+      }
+      drain();
+    }
+  }
+
+  /**
+   * Pauses the handler. Messages will be buffered until the handler is resumed.
+   */
+  synchronized void pause() {
+    paused = true;
+  }
+
+  /**
+   * Resumes the handler, passing on buffered messages.
+   */
+  void resume() {
+    synchronized (this) {
+      paused = false;
+    }
+    drain();
+  }
+
+  /**
+   * Passes buffered messages to the handler until the handler is paused or
+   * reaches its concurrency limit. Only one thread drains at a time, and
+   * handlers which complete messages synchronously would otherwise recurse
+   * once per buffered message.
+   */
+  private void drain() {
+    synchronized (this) {
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+
+    try {
+      while (true) {
+        Object message;
+        synchronized (this) {
+          if (paused || buffer.isEmpty() || !acquire(buffer.peek())) {
+            draining = false;
+            return;
+          }
+          message = buffer.poll();
+        }
+        dispatch(message);
+      }
+    }
+    catch (RuntimeException e) {
+      synchronized (this) {
+        draining = false;
+      }
+      throw e;
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * An immutable snapshot of a PHP value which can be handed to other verticles.
+ *
+ * Quercus values keep copy-on-write and cached state which is updated even
+ * when they're only read, so they can't safely be shared between threads.
+ * Instead, a message is frozen into immutable Java objects by the sender and
+ * thawed into new PHP values in the environment of each receiver, so no
+ * Quercus value is ever used by more than one verticle.
+ *
+ * @author Jordan Halterman
+ */
+final class FrozenValue {
+
+  /**
+   * The keys and values of a frozen array. Keys are Longs or Strings, and
+   * values are frozen values.
+   */
+  private final Object[] keys;
+
+  private final Object[] values;
+
+  private FrozenValue(Object[] keys, Object[] values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /**
+   * Freezes a scalar or array value.
+   *
+   * @return The frozen value, which is null for PHP nulls.
+   * @throws IllegalArgumentException If the value is or contains an object.
+   */
+  static Object freeze(Env env, Value value) {
+    value = value.toValue();
+    if (value.isNull()) {
+      return null;
+    }
+    else if (value.isArray()) {
+      ArrayValue array = value.toArrayValue(env);
+      Object[] keys = new Object[array.getSize()];
+      Object[] values = new Object[keys.length];
+      Iterator<Map.Entry<Value, Value>> iter = array.getIterator(env);
+      for (int i = 0; iter.hasNext(); i++) {
+        Map.Entry<Value, Value> entry = iter.next();
+        Value key = entry.getKey();
+        keys[i] = key.isLong() ? (Object) key.toLong() : key.toString();
+        values[i] = freeze(env, entry.getValue());
+      }
+      return new FrozenValue(keys, values);
+    }
+    else if (value.isObject()) {
+      throw new IllegalArgumentException("Objects can't be frozen.");
+    }
+    else if (value.isBoolean()) {
+      return value.toBoolean();
+    }
+    else if (value.isLong()) {
+      return value.toLong();
+    }
+    else if (value.isDouble()) {
+      return value.toDouble();
+    }
+    return value.toString();
+  }
+
+  /**
+   * Thaws a frozen value into a new PHP value in the given environment.
+   */
+  static Value thaw(Env env, Object frozen) {
+    if (frozen == null) {
+      return NullValue.NULL;
+    }
+    else if (frozen instanceof FrozenValue) {
+      FrozenValue array = (FrozenValue) frozen;
+      ArrayValue result = new ArrayValueImpl();
+      for (int i = 0; i < array.keys.length; i++) {
+        Object key = array.keys[i];
+        result.put(key instanceof Long ? LongValue.create((Long) key) : env.createString((String) key),
+            thaw(env, array.values[i]));
+      }
+      return result;
+    }
+    else if (frozen instanceof Boolean) {
+      return BooleanValue.create((Boolean) frozen);
+    }
+    else if (frozen instanceof Long) {
+      return LongValue.create((Long) frozen);
+    }
+    else if (frozen instanceof Double) {
+      return DoubleValue.create((Double) frozen);
+    }
+    return env.createString((String) frozen);
+  }
+
+}
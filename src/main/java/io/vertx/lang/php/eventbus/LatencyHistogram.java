@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A lock free histogram of latencies.
+ *
+ * Latencies are recorded in microseconds in power of two buckets, so recording
+ * a value is only a handful of atomic increments and percentiles are accurate
+ * to within a factor of two.
+ *
+ * @author Jordan Halterman
+ */
+class LatencyHistogram {
+
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong total = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos
+   *          The latency in nanoseconds.
+   */
+  void record(long nanos) {
+    long micros = nanos / 1000;
+    buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+    count.incrementAndGet();
+    total.addAndGet(micros);
+    long current = max.get();
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   */
+  long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the mean latency in microseconds.
+   */
+  double getMean() {
+    long count = this.count.get();
+    return count > 0 ? (double) total.get() / count : 0;
+  }
+
+  /**
+   * Returns the maximum latency in microseconds.
+   */
+  long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the upper bound of the bucket containing the given percentile, in
+   * microseconds.
+   */
+  long getPercentile(double percentile) {
+    long threshold = (long) Math.ceil(count.get() * percentile / 100);
+    if (threshold == 0) {
+      return 0;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= threshold) {
+        return Math.min(1L << i, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Returns a JSON summary of the histogram.
+   */
+  JsonObject toJson() {
+    return new JsonObject()
+        .putNumber("count", getCount())
+        .putNumber("mean", getMean())
+        .putNumber("max", getMax())
+        .putNumber("p50", getPercentile(50))
+        .putNumber("p90", getPercentile(90))
+        .putNumber("p99", getPercentile(99));
+  }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import io.vertx.lang.php.PhpVerticleFactory;
+import io.vertx.lang.php.util.PhpTypes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.vertx.java.core.json.JsonObject;
+
+import com.caucho.quercus.env.Callable;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.Value;
+
+/**
+ * A JVM wide registry of PHP handlers registered with registerLocalHandler().
+ *
+ * Messages sent with sendLocal() and publishLocal() are delivered directly to
+ * these handlers as frozen values rather than being converted to JSON and
+ * back, and are executed on the context of the verticle that registered the
+ * handler, where they are thawed into that verticle's environment.
+ *
+ * @author Jordan Halterman
+ */
+final class LocalHandlers {
+
+  private static final ConcurrentMap<String, Consumers> consumers = new ConcurrentHashMap<String, Consumers>();
+
+  private LocalHandlers() {
+  }
+
+  /**
+   * The local handlers registered at a single address.
+   */
+  private static final class Consumers {
+    private final CopyOnWriteArrayList<LocalHandler> handlers = new CopyOnWriteArrayList<LocalHandler>();
+    private final AtomicInteger position = new AtomicInteger();
+
+    /**
+     * Selects the next handler in round robin order.
+     */
+    private LocalHandler next() {
+      Object[] current = handlers.toArray();
+      if (current.length == 0) {
+        return null;
+      }
+      return (LocalHandler) current[(position.getAndIncrement() & Integer.MAX_VALUE) % current.length];
+    }
+  }
+
+  /**
+   * A PHP handler and the verticle it belongs to.
+   */
+  static final class LocalHandler {
+    private final Env env;
+    private final Callable callback;
+    private final org.vertx.java.core.Context context;
+    private final FlowControl handler;
+    private final AddressMetrics metrics;
+
+    LocalHandler(Env env, Callable callback, FlowControl handler, AddressMetrics metrics) {
+      this.env = env;
+      this.callback = callback;
+      this.context = PhpVerticleFactory.vertx.currentContext();
+      this.handler = handler;
+      this.metrics = metrics;
+    }
+
+    /**
+     * Delivers a message to the handler on the handler's context. Messages
+     * pass through the handler's flow control, so they are buffered while
+     * the handler is paused and rejected once its buffer is full, just like
+     * event bus messages.
+     */
+    void deliver(final Object body, final LocalReply reply) {
+      context.runOnContext(new org.vertx.java.core.Handler<Void>() {
+        @Override
+        public void handle(Void event) {
+          handler.handleLocal(new FlowControl.LocalDelivery() {
+            @Override
+            public void run() {
+              long start = System.nanoTime();
+              try {
+                callback.call(env, env.wrapJava(new LocalMessage(body, reply)));
+              }
+              finally {
+                metrics.recordReceived(System.nanoTime() - start);
+              }
+            }
+
+            @Override
+            public void reject(JsonObject rejection) {
+              if (reply != null) {
+                reply.deliver(FrozenValue.freeze(env, PhpTypes.fromJava(env, rejection)), null);
+              }
+            }
+          });
+        }
+      });
+    }
+  }
+
+  /**
+   * A PHP reply handler and the verticle it belongs to.
+   */
+  static final class LocalReply {
+    private final Env env;
+    private final Callable callback;
+    private final org.vertx.java.core.Context context;
+
+    LocalReply(Env env, Callable callback) {
+      this.env = env;
+      this.callback = callback;
+      this.context = PhpVerticleFactory.vertx.currentContext();
+    }
+
+    /**
+     * Delivers a reply to the reply handler on the handler's context.
+     */
+    void deliver(final Object body, final LocalReply reply) {
+      context.runOnContext(new org.vertx.java.core.Handler<Void>() {
+        @Override
+        public void handle(Void event) {
+          callback.call(env, env.wrapJava(new LocalMessage(body, reply)));
+        }
+      });
+    }
+  }
+
+  /**
+   * Registers a local handler.
+   */
+  static void register(String address, LocalHandler handler) {
+    Consumers addressConsumers = consumers.get(address);
+    if (addressConsumers == null) {
+      addressConsumers = new Consumers();
+      Consumers existing = consumers.putIfAbsent(address, addressConsumers);
+      if (existing != null) {
+        addressConsumers = existing;
+      }
+    }
+    addressConsumers.handlers.add(handler);
+  }
+
+  /**
+   * Unregisters the local handler paired with the given event bus handler, if
+   * any.
+   */
+  static void unregister(String address, org.vertx.java.core.Handler<?> handler) {
+    Consumers addressConsumers = consumers.get(address);
+    if (addressConsumers != null) {
+      for (LocalHandler localHandler : addressConsumers.handlers) {
+        if (localHandler.handler == handler) {
+          addressConsumers.handlers.remove(localHandler);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends a message to a single local handler.
+   *
+   * @return Indicates whether a local handler was found.
+   */
+  static boolean send(String address, Object body, LocalReply reply) {
+    Consumers addressConsumers = consumers.get(address);
+    LocalHandler handler = addressConsumers != null ? addressConsumers.next() : null;
+    if (handler == null) {
+      return false;
+    }
+    handler.deliver(body, reply);
+    return true;
+  }
+
+  /**
+   * Publishes a message to all local handlers.
+   *
+   * @return Indicates whether any local handlers were found.
+   */
+  static boolean publish(String address, Object body) {
+    Consumers addressConsumers = consumers.get(address);
+    if (addressConsumers == null || addressConsumers.handlers.isEmpty()) {
+      return false;
+    }
+    for (LocalHandler handler : addressConsumers.handlers) {
+      handler.deliver(body, null);
+    }
+    return true;
+  }
+
+  /**
+   * Freezes a PHP value so that it can be safely handed to other verticles.
+   * Objects cannot be shared and result in an error, even when nested in an
+   * array.
+   */
+  static Object freeze(Env env, Value value, String method) {
+    if (PhpTypes.isNull(value)) {
+      return null;
+    }
+    value = value.toValue();
+    if (value.isObject()) {
+      env.error(String.format("Message argument to %s must be a scalar or an array.", method));
+      return null;
+    }
+    try {
+      return FrozenValue.freeze(env, value);
+    }
+    catch (IllegalArgumentException e) {
+      env.error(String.format("Message argument to %s must not contain objects.", method));
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import io.vertx.lang.php.Gettable;
+import io.vertx.lang.php.util.PhpTypes;
+
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * A message delivered to a local handler by sendLocal() or publishLocal().
+ *
+ * The message body is a frozen snapshot of the PHP value that was sent. It is
+ * thawed into a new PHP value in the receiving verticle's environment the
+ * first time it is read, so handlers which never look at the body don't pay
+ * for the copy and the receiver never shares PHP values with the sender.
+ *
+ * @author Jordan Halterman
+ */
+public class LocalMessage implements Gettable {
+
+  private final Object frozen;
+
+  private Value body;
+
+  private final LocalHandlers.LocalReply replyTo;
+
+  LocalMessage(Object frozen, LocalHandlers.LocalReply replyTo) {
+    this.frozen = frozen;
+    this.replyTo = replyTo;
+  }
+
+  @Override
+  public Value __getField(Env env, StringValue name) {
+    return env.wrapJava(this).callMethod(env, name);
+  }
+
+  /**
+   * Returns the body of the message.
+   * 
+   * Note that this method can also be accessed using the magic PHP getter, i.e.
+   * $message->body;
+   * 
+   * @return The message body.
+   */
+  public Value body(Env env) {
+    if (body == null) {
+      body = FrozenValue.thaw(env, frozen);
+    }
+    return body;
+  }
+
+  /**
+   * Replies to the message. Replies are delivered directly to the sender's
+   * reply handler, if any.
+   * 
+   * @param message
+   *          An optional scalar or array message.
+   * @param replyHandler
+   *          An optional reply handler.
+   */
+  public void reply(Env env, @Optional Value message, @Optional Value replyHandler) {
+    if (replyTo == null) {
+      return;
+    }
+
+    LocalHandlers.LocalReply reply = null;
+    if (PhpTypes.notNull(replyHandler)) {
+      PhpTypes.assertCallable(env, replyHandler,
+          "Handler argument to Vertx\\EventBus\\LocalMessage::reply() must be callable.");
+      reply = new LocalHandlers.LocalReply(env, PhpTypes.toCallable(replyHandler));
+    }
+    replyTo.deliver(LocalHandlers.freeze(env, message, "Vertx\\EventBus\\LocalMessage::reply()"), reply);
+  }
+
+  /**
+   * Local messages have no reply address, since replies are delivered
+   * directly to the sender.
+   * 
+   * @return NULL
+   */
+  public Value replyAddress(Env env) {
+    return NullValue.NULL;
+  }
+
+  public String toString() {
+    return "php:Vertx\\EventBus\\LocalMessage";
+  }
+
+}
@@ -17,13 +17,13 @@ package io.vertx.lang.php.eventbus;
 
 import io.vertx.lang.php.Gettable;
 import io.vertx.lang.php.Handler;
+import io.vertx.lang.php.PhpVerticleFactory;
 import io.vertx.lang.php.ResultModifier;
 import io.vertx.lang.php.buffer.Buffer;
 import io.vertx.lang.php.util.PhpTypes;
 
-import org.vertx.java.core.json.JsonObject;
-
 import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.ArrayValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
@@ -37,25 +37,32 @@ public class Message<T> implements Gettable {
 
   private org.vertx.java.core.eventbus.Message<T> message;
 
-  private boolean isCache;
+  /**
+   * The converted message body. The body is converted lazily on the first
+   * call to body() so that handlers which never look at the body, such as
+   * routing verticles, don't pay for the conversion.
+   */
+  private Value body;
+
+  /**
+   * The flow control of the handler the message was delivered to, if any.
+   */
+  private FlowControl flow;
 
-  private Value cache;
+  /**
+   * The timer which marks the message as done if the handler never does.
+   */
+  private long timerID = -1;
 
   public Message(org.vertx.java.core.eventbus.Message<T> message) {
     this.message = message;
-    initCache();
   }
 
-  private void initCache() {
-    Object body = message.body();
-    if (body instanceof JsonObject) {
-      isCache = true;
-      Env env = Env.getCurrent();
-      cache = PhpTypes.arrayFromJson(env, (JsonObject) message.body());
-    }
-    else if (body instanceof org.vertx.java.core.buffer.Buffer) {
-      isCache = true;
-      cache = Env.getCurrent().wrapJava(new Buffer((org.vertx.java.core.buffer.Buffer) body));
+  Message(org.vertx.java.core.eventbus.Message<T> message, FlowControl flow) {
+    this.message = message;
+    this.flow = flow;
+    if (flow != null) {
+      timerID = flow.watch(this);
     }
   }
 
@@ -73,10 +80,16 @@ public class Message<T> implements Gettable {
    * @return The message body.
    */
   public Value body(Env env) {
-    if (isCache) {
-      return cache;
+    if (body == null) {
+      Object value = Compression.decompress(env, message.body());
+      if (value instanceof org.vertx.java.core.buffer.Buffer) {
+        body = env.wrapJava(new Buffer((org.vertx.java.core.buffer.Buffer) value));
+      }
+      else {
+        body = PhpTypes.fromJava(env, value);
+      }
     }
-    return env.wrapJava(message.body());
+    return body;
   }
 
   /**
@@ -87,72 +100,141 @@ public class Message<T> implements Gettable {
    *          reply, an empty message will be sent.
    * @param replyHandler
    *          An optional reply handler.
+   * @param options
+   *          An optional array of request options. Only the timeout option is
+   *          supported for replies, in which case the reply handler will be
+   *          invoked with an error as its second argument if no reply arrives
+   *          in time.
    * @return The called object.
    */
-  public void reply(Env env, @Optional Value message, @Optional Value replyHandler) {
-    if (PhpTypes.notNull(message)) {
-      if (PhpTypes.notNull(replyHandler)) {
-        PhpTypes.assertCallable(env, replyHandler,
-            "Handler argument to Vertx\\EventBus\\Message::reply() must be callable.");
-
-        Handler<org.vertx.java.core.eventbus.Message<T>> handler = new Handler<org.vertx.java.core.eventbus.Message<T>>(
-            env, PhpTypes.toCallable(replyHandler),
-            new ResultModifier<org.vertx.java.core.eventbus.Message<T>, Message<T>>() {
-              @Override
-              public Message<T> modify(org.vertx.java.core.eventbus.Message<T> message) {
-                return new Message<T>(message);
-              }
-            });
-
-        if (message.isBoolean()) {
-          this.message.reply(message.toBoolean(), handler);
-        }
-        else if (message.isString()) {
-          this.message.reply(message.toString(), handler);
-        }
-        else if (message.isNumeric()) {
-          this.message.reply(message.toInt(), handler);
-        }
-        else if (message.isDouble()) {
-          this.message.reply(message.toDouble(), handler);
-        }
-        else if (message.isArray()) {
-          this.message.reply(PhpTypes.arrayToJson(env, message), handler);
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public void reply(Env env, @Optional Value message, @Optional Value replyHandler, @Optional ArrayValue options) {
+    if (PhpTypes.notNull(replyHandler)) {
+      PhpTypes.assertCallable(env, replyHandler,
+          "Handler argument to Vertx\\EventBus\\Message::reply() must be callable.");
+    }
+
+    if (PhpTypes.notNull(replyHandler) && PhpTypes.notNull(options)) {
+      final Object body = PhpTypes.notNull(message) ? EventBus.toMessageBody(env, message) : null;
+      ReplyHandler handler = new ReplyHandler(env, PhpTypes.toCallable(replyHandler), EventBus.getTimeout(env, options), null) {
+        @Override
+        protected void doSend() {
+          if (body != null) {
+            Message.this.message.reply(body, (org.vertx.java.core.Handler) this);
+          }
+          else {
+            Message.this.message.reply((org.vertx.java.core.Handler) this);
+          }
         }
+      };
+      handler.send(null);
+    }
+    else if (PhpTypes.notNull(message)) {
+      if (PhpTypes.notNull(replyHandler)) {
+        this.message.reply(EventBus.toMessageBody(env, message), createReplyHandler(env, replyHandler));
       }
       else {
-        if (message.isBoolean()) {
-          this.message.reply(message.toBoolean());
-        }
-        else if (message.isString()) {
-          this.message.reply(message.toString());
-        }
-        else if (message.isNumeric()) {
-          this.message.reply(message.toInt());
-        }
-        else if (message.isDouble()) {
-          this.message.reply(message.toDouble());
-        }
-        else if (message.isArray()) {
-          this.message.reply(PhpTypes.arrayToJson(env, message));
-        }
+        this.message.reply(EventBus.toMessageBody(env, message));
       }
     }
     else if (PhpTypes.notNull(replyHandler)) {
-      PhpTypes.assertCallable(env, replyHandler,
-          "Handler argument to Vertx\\EventBus\\Message::reply() must be callable.");
-
-      this.message.reply(new Handler<org.vertx.java.core.eventbus.Message<T>>(env, PhpTypes.toCallable(replyHandler),
-          new ResultModifier<org.vertx.java.core.eventbus.Message<T>, Message<T>>() {
-            @Override
-            public Message<T> modify(org.vertx.java.core.eventbus.Message<T> message) {
-              return new Message<T>(message);
-            }
-          }));
+      this.message.reply(createReplyHandler(env, replyHandler));
     }
     else {
       this.message.reply();
     }
+    done(env);
+  }
+
+  /**
+   * Marks the message as done.
+   *
+   * Handlers registered with a maxConcurrent option must reply to or call
+   * done() on each message to allow further messages to be delivered. Messages
+   * are also marked as done if the handler throws an exception or doesn't
+   * call done() within the handler's doneTimeout.
+   *
+   * @return The called object.
+   */
+  public Message<T> done(Env env) {
+    release();
+    return this;
+  }
+
+  /**
+   * Marks the message as done once its done timeout expires.
+   */
+  void timedOut() {
+    synchronized (this) {
+      timerID = -1;
+    }
+    release();
+  }
+
+  /**
+   * Releases the message's slot in its handler's concurrency limit. The
+   * done timeout may fire on another thread of a multi-threaded worker, so
+   * the slot is released exactly once under the message's lock.
+   */
+  void release() {
+    FlowControl flow;
+    long timerID;
+    synchronized (this) {
+      flow = this.flow;
+      if (flow == null) {
+        return;
+      }
+      this.flow = null;
+      timerID = this.timerID;
+      this.timerID = -1;
+    }
+
+    if (timerID != -1) {
+      PhpVerticleFactory.vertx.cancelTimer(timerID);
+    }
+    flow.complete();
+  }
+
+  /**
+   * Forwards the message to another address.
+   *
+   * The original message body is sent as is, without being converted to a
+   * PHP value and back, so routing and proxy verticles can pass messages on
+   * without paying any conversion costs.
+   *
+   * @param address
+   *          The address to which to forward the message.
+   * @param replyHandler
+   *          An optional handler to be invoked in response to the forwarded
+   *          message.
+   * @return The called object.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public Message<T> forward(Env env, StringValue address, @Optional Value replyHandler) {
+    org.vertx.java.core.eventbus.EventBus eventBus = PhpVerticleFactory.vertx.eventBus();
+    AddressMetrics.get(address.toString()).recordSent(message.body());
+    if (PhpTypes.notNull(replyHandler)) {
+      PhpTypes.assertCallable(env, replyHandler,
+          "Handler argument to Vertx\\EventBus\\Message::forward() must be callable.");
+      eventBus.send(address.toString(), message.body(), (org.vertx.java.core.Handler) createReplyHandler(env, replyHandler));
+    }
+    else {
+      eventBus.send(address.toString(), message.body());
+    }
+    return this;
+  }
+
+  /**
+   * Creates a handler which invokes a PHP callable with wrapped reply messages.
+   */
+  private Handler<org.vertx.java.core.eventbus.Message<T>> createReplyHandler(Env env, Value replyHandler) {
+    return new Handler<org.vertx.java.core.eventbus.Message<T>>(env, PhpTypes.toCallable(replyHandler),
+        new ResultModifier<org.vertx.java.core.eventbus.Message<T>, Message<T>>() {
+          @Override
+          public Message<T> modify(org.vertx.java.core.eventbus.Message<T> message) {
+            return new Message<T>(message);
+          }
+        });
   }
 
   /**
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Measures the encoded size of event bus message bodies.
+ *
+ * Strings are measured in UTF-8 bytes and buffers exactly. JSON bodies are
+ * measured by walking them rather than by encoding them, so their sizes are
+ * exact except for characters which need to be escaped.
+ *
+ * @author Jordan Halterman
+ */
+final class MessageSize {
+
+  private MessageSize() {
+  }
+
+  /**
+   * Returns the encoded size of a message body in bytes.
+   */
+  static long of(Object body) {
+    if (body == null) {
+      return 0;
+    }
+    else if (body instanceof org.vertx.java.core.buffer.Buffer) {
+      return ((org.vertx.java.core.buffer.Buffer) body).length();
+    }
+    else if (body instanceof byte[]) {
+      return ((byte[]) body).length;
+    }
+    else if (body instanceof String) {
+      return utf8Length((String) body);
+    }
+    return jsonLength(body);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long jsonLength(Object value) {
+    if (value == null) {
+      return 4;
+    }
+    else if (value instanceof String) {
+      return utf8Length((String) value) + 2;
+    }
+    else if (value instanceof JsonObject) {
+      return objectLength((JsonObject) value);
+    }
+    else if (value instanceof Map) {
+      return objectLength(new JsonObject((Map<String, Object>) value));
+    }
+    else if (value instanceof JsonArray) {
+      return arrayLength((JsonArray) value);
+    }
+    else if (value instanceof List) {
+      return arrayLength(new JsonArray((List<Object>) value));
+    }
+    else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return digits(((Number) value).longValue());
+    }
+    else if (value instanceof byte[]) {
+      // Binary values are encoded in base64.
+      return (((byte[]) value).length + 2) / 3 * 4 + 2;
+    }
+    return String.valueOf(value).length();
+  }
+
+  /**
+   * Measures a JSON object. Nested structures are only wrapped, not copied,
+   * as they are read.
+   */
+  private static long objectLength(JsonObject json) {
+    long length = 2 + Math.max(json.size() - 1, 0);
+    for (String name : json.getFieldNames()) {
+      length += utf8Length(name) + 3 + jsonLength(json.getField(name));
+    }
+    return length;
+  }
+
+  private static long arrayLength(JsonArray json) {
+    long length = 2 + Math.max(json.size() - 1, 0);
+    for (Object value : json) {
+      length += jsonLength(value);
+    }
+    return length;
+  }
+
+  private static int digits(long value) {
+    if (value == Long.MIN_VALUE) {
+      return 20;
+    }
+    int digits = value < 0 ? 2 : 1;
+    value = Math.abs(value);
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+
+  /**
+   * Returns the length of a string in UTF-8 without encoding it.
+   */
+  static long utf8Length(String string) {
+    long length = 0;
+    int count = string.length();
+    for (int i = 0; i < count; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length++;
+      }
+      else if (c < 0x800) {
+        length += 2;
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      }
+      else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import io.vertx.lang.php.PhpVerticleFactory;
+
+import org.vertx.java.core.VertxException;
+
+import com.caucho.quercus.env.Callable;
+import com.caucho.quercus.env.Env;
+
+/**
+ * A reply handler for requests sent with a timeout or in-flight limit.
+ *
+ * The PHP callback is invoked exactly once, either with the reply message as
+ * the first argument or with an error as the second argument if the request
+ * timed out or was rejected, either by the limiter or by the handler's flow
+ * control.
+ *
+ * @author Jordan Halterman
+ */
+abstract class ReplyHandler implements org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> {
+
+  /**
+   * The verticle environment and PHP callback. These are released once the
+   * request completes so that handlers left registered by timed out requests
+   * don't hold on to them.
+   *
+   * Replies to a multi-threaded worker may arrive on any of its threads, so
+   * the request's state is guarded by its lock.
+   */
+  private volatile Env env;
+
+  private Callable callback;
+
+  private final long timeout;
+
+  private long timerID = -1;
+
+  private RequestLimiter limiter;
+
+  /**
+   * The limiter in whose queue the request is waiting to be sent, if any.
+   */
+  private RequestLimiter queue;
+
+  private final AddressMetrics metrics;
+
+  private long start;
+
+  ReplyHandler(Env env, Callable callback, long timeout, AddressMetrics metrics) {
+    this.env = env;
+    this.callback = callback;
+    this.timeout = timeout;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sends the request on the event bus with this object as the reply handler.
+   */
+  protected abstract void doSend();
+
+  /**
+   * Starts the timeout timer and sends the request, subject to the given
+   * limiter if any. The timeout covers time spent waiting in the limiter's
+   * queue as well as time spent waiting for the reply.
+   */
+  void send(RequestLimiter limiter) {
+    if (timeout > 0) {
+      long timerID = PhpVerticleFactory.vertx.setTimer(timeout, new org.vertx.java.core.Handler<Long>() {
+        @Override
+        public void handle(Long timerID) {
+          synchronized (ReplyHandler.this) {
+            ReplyHandler.this.timerID = -1;
+          }
+          fail(new VertxException("Timed out waiting for a reply."));
+        }
+      });
+      synchronized (this) {
+        if (callback != null) {
+          this.timerID = timerID;
+        }
+      }
+    }
+    if (limiter != null) {
+      limiter.submit(this);
+    }
+    else {
+      dispatch(null);
+    }
+  }
+
+  /**
+   * Marks the request as waiting in a limiter's queue.
+   */
+  synchronized void queued(RequestLimiter limiter) {
+    queue = limiter;
+  }
+
+  /**
+   * Dispatches the request. The limiter, if any, is released once the
+   * request completes, or immediately if the request already completed.
+   */
+  void dispatch(RequestLimiter limiter) {
+    synchronized (this) {
+      queue = null;
+      if (callback != null) {
+        this.limiter = limiter;
+        start = System.nanoTime();
+        limiter = null;
+      }
+      else if (limiter == null) {
+        return;
+      }
+    }
+
+    if (limiter != null) {
+      limiter.release();
+    }
+    else {
+      doSend();
+    }
+  }
+
+  @Override
+  public void handle(org.vertx.java.core.eventbus.Message<Object> reply) {
+    String rejection = FlowControl.getRejection(reply.body());
+    if (rejection != null) {
+      fail(new VertxException(rejection));
+      return;
+    }
+
+    Env env = this.env;
+    Callable callback = complete();
+    if (callback != null) {
+      if (metrics != null) {
+        metrics.recordReply(System.nanoTime() - start);
+      }
+      callback.call(env, env.wrapJava(new Message<Object>(reply)), env.wrapJava(null));
+    }
+  }
+
+  /**
+   * Fails the request.
+   */
+  void fail(Throwable cause) {
+    Env env = this.env;
+    Callable callback = complete();
+    if (callback != null) {
+      callback.call(env, env.wrapJava(null), env.wrapJava(cause));
+    }
+  }
+
+  /**
+   * Marks the request as complete, returning the callback if the request had
+   * not already completed.
+   */
+  private Callable complete() {
+    Callable callback;
+    long timerID;
+    RequestLimiter limiter;
+    RequestLimiter queue;
+    synchronized (this) {
+      callback = this.callback;
+      if (callback == null) {
+        return null;
+      }
+      this.callback = null;
+      this.env = null;
+      timerID = this.timerID;
+      this.timerID = -1;
+      limiter = this.limiter;
+      this.limiter = null;
+      queue = this.queue;
+      this.queue = null;
+    }
+
+    if (timerID != -1) {
+      PhpVerticleFactory.vertx.cancelTimer(timerID);
+    }
+    if (limiter != null) {
+      limiter.release();
+    }
+    else if (queue != null) {
+      queue.cancel(this);
+    }
+    return callback;
+  }
+
+}
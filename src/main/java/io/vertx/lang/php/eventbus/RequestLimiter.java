@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.VertxException;
+
+import com.caucho.quercus.env.Env;
+
+/**
+ * Limits the number of requests awaiting a reply from a single address.
+ *
+ * Limiters are kept per verticle. Replies to a multi-threaded worker may
+ * arrive on any of its threads, so the limiter's state is guarded by its
+ * lock, but requests are sent and failed outside of it.
+ *
+ * @author Jordan Halterman
+ */
+class RequestLimiter {
+
+  private static final ConcurrentMap<Env, ConcurrentMap<String, RequestLimiter>> limiters = new ConcurrentHashMap<Env, ConcurrentMap<String, RequestLimiter>>();
+
+  private final String address;
+
+  private int maxInFlight;
+
+  private boolean queue;
+
+  private int maxQueued;
+
+  private int inFlight;
+
+  private final Deque<ReplyHandler> pending = new ArrayDeque<ReplyHandler>();
+
+  RequestLimiter(String address) {
+    this.address = address;
+  }
+
+  /**
+   * Gets the limiter for an address in the current verticle, updating its
+   * limits to the given values.
+   */
+  static RequestLimiter get(Env env, String address, int maxInFlight, boolean queue, int maxQueued) {
+    ConcurrentMap<String, RequestLimiter> envLimiters = limiters.get(env);
+    if (envLimiters == null) {
+      envLimiters = new ConcurrentHashMap<String, RequestLimiter>();
+      ConcurrentMap<String, RequestLimiter> existing = limiters.putIfAbsent(env, envLimiters);
+      if (existing != null) {
+        envLimiters = existing;
+      }
+    }
+
+    RequestLimiter limiter = envLimiters.get(address);
+    if (limiter == null) {
+      limiter = new RequestLimiter(address);
+      RequestLimiter existing = envLimiters.putIfAbsent(address, limiter);
+      if (existing != null) {
+        limiter = existing;
+      }
+    }
+    synchronized (limiter) {
+      limiter.maxInFlight = maxInFlight;
+      limiter.queue = queue;
+      limiter.maxQueued = maxQueued;
+    }
+    return limiter;
+  }
+
+  /**
+   * Discards the limiters of the verticle that owns the given environment.
+   * This is called when the verticle is stopped.
+   */
+  static void removeAll(Env env) {
+    limiters.remove(env);
+  }
+
+  /**
+   * Sends a request if the limit has not been reached, otherwise queues or
+   * rejects it. Requests are rejected once the queue is full.
+   */
+  void submit(ReplyHandler request) {
+    boolean dispatch = false;
+    String rejection = null;
+    synchronized (this) {
+      if (inFlight < maxInFlight) {
+        inFlight++;
+        dispatch = true;
+      }
+      else if (!queue) {
+        rejection = "Too many requests in flight to " + address + ".";
+      }
+      else if (pending.size() < maxQueued) {
+        pending.add(request);
+        request.queued(this);
+      }
+      else {
+        rejection = "Too many requests queued for " + address + ".";
+      }
+    }
+
+    if (dispatch) {
+      request.dispatch(this);
+    }
+    else if (rejection != null) {
+      request.fail(new VertxException(rejection));
+    }
+  }
+
+  /**
+   * Removes a queued request which completed before it was sent, i.e. one
+   * which timed out while waiting in the queue.
+   */
+  synchronized void cancel(ReplyHandler request) {
+    pending.remove(request);
+  }
+
+  /**
+   * Releases an in-flight request, sending the next queued request if any.
+   */
+  void release() {
+    synchronized (this) {
+      inFlight--;
+    }
+    while (true) {
+      ReplyHandler next;
+      synchronized (this) {
+        if (inFlight >= maxInFlight || pending.isEmpty()) {
+          return;
+        }
+        inFlight++;
+        next = pending.poll();
+      }
+      next.dispatch(this);
+    }
+  }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.eventbus;
+
+import io.vertx.lang.php.PhpVerticleFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import com.caucho.quercus.env.Callable;
+import com.caucho.quercus.env.Env;
+
+/**
+ * A JVM wide registry of sharded handlers.
+ *
+ * Each verticle instance which registers a sharded handler at an address claims
+ * a free shard of the address and registers its handler at the shard address.
+ * One member of the group also registers a router at the address itself, which
+ * hashes the key of each message and forwards the message to the matching
+ * shard. Since all messages pass through a single router, messages with the
+ * same key are always handled in order. When the routing member leaves, the
+ * router is registered by another member on that member's context.
+ *
+ * Shard claims and routing only exist within a single JVM, so the router and
+ * shard handlers are registered as local handlers. In a clustered event bus
+ * each node would otherwise run its own router and messages with the same
+ * key could be handled on different nodes at the same time.
+ *
+ * @author Jordan Halterman
+ */
+final class ShardedHandlers {
+
+  private static final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+  private static final ConcurrentMap<org.vertx.java.core.Handler<?>, Member> members = new ConcurrentHashMap<org.vertx.java.core.Handler<?>, Member>();
+
+  private ShardedHandlers() {
+  }
+
+  /**
+   * The shards of a single address. Membership is guarded by the group's
+   * monitor.
+   */
+  static final class Group {
+    private final String address;
+    private final int instances;
+    private final Member[] shards;
+    private final AtomicLongArray counts;
+    private Member routing;
+    private boolean closed;
+
+    private Group(String address, int instances) {
+      this.address = address;
+      this.instances = instances;
+      this.shards = new Member[instances];
+      this.counts = new AtomicLongArray(instances);
+    }
+
+    /**
+     * Returns the address of a shard.
+     */
+    String shardAddress(int shard) {
+      return address + ".shard." + shard;
+    }
+
+    /**
+     * Returns routing statistics for the group. The skew is the ratio of the
+     * busiest shard's message count to the mean message count.
+     */
+    JsonObject toJson() {
+      JsonArray shardCounts = new JsonArray();
+      long total = 0;
+      long max = 0;
+      for (int i = 0; i < instances; i++) {
+        long count = counts.get(i);
+        shardCounts.addNumber(count);
+        total += count;
+        max = Math.max(max, count);
+      }
+      double mean = (double) total / instances;
+      return new JsonObject()
+          .putNumber("instances", instances)
+          .putArray("counts", shardCounts)
+          .putNumber("skew", mean > 0 ? max / mean : 0);
+    }
+  }
+
+  /**
+   * A shard handler's membership in a group. Each member carries its own
+   * router so that routing can be handed over to it.
+   */
+  static final class Member {
+    private final Group group;
+    private final int shard;
+    private final Router router;
+    private final org.vertx.java.core.Context context;
+    private boolean registered;
+
+    private Member(Env env, Group group, int shard, String keyField, Callable keyFunction) {
+      this.group = group;
+      this.shard = shard;
+      this.router = new Router(env, group, keyField, keyFunction);
+      this.context = PhpVerticleFactory.vertx.currentContext();
+    }
+
+    /**
+     * Returns the address of the member's shard.
+     */
+    String shardAddress() {
+      return group.shardAddress(shard);
+    }
+  }
+
+  /**
+   * Routes messages to shards by key.
+   */
+  static final class Router implements org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message<Object>> {
+    private final Env env;
+    private final Group group;
+    private final String keyField;
+    private final Callable keyFunction;
+
+    Router(Env env, Group group, String keyField, Callable keyFunction) {
+      this.env = env;
+      this.group = group;
+      this.keyField = keyField;
+      this.keyFunction = keyFunction;
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void handle(final org.vertx.java.core.eventbus.Message<Object> message) {
+      String key;
+      if (keyFunction != null) {
+        key = keyFunction.call(env, env.wrapJava(new Message<Object>(message))).toString();
+      }
+      else {
+        Object body = Compression.decompress(env, message.body());
+        if (body instanceof JsonObject) {
+          body = ((JsonObject) body).getField(keyField);
+        }
+        key = String.valueOf(body);
+      }
+
+      int shard = ShardedHandlers.shardFor(key, group.instances);
+      group.counts.incrementAndGet(shard);
+      String shardAddress = group.shardAddress(shard);
+      AddressMetrics.get(shardAddress).recordSent(message.body());
+
+      org.vertx.java.core.eventbus.EventBus eventBus = PhpVerticleFactory.vertx.eventBus();
+      if (message.replyAddress() != null) {
+        eventBus.send(shardAddress, message.body(), new org.vertx.java.core.Handler<org.vertx.java.core.eventbus.Message>() {
+          @Override
+          public void handle(org.vertx.java.core.eventbus.Message reply) {
+            message.reply(reply.body());
+          }
+        });
+      }
+      else {
+        eventBus.send(shardAddress, message.body());
+      }
+    }
+  }
+
+  /**
+   * Hashes a key to a shard. String hash codes are mixed with the murmur3
+   * finalizer so that similar keys are spread evenly.
+   */
+  static int shardFor(String key, int instances) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return (hash & Integer.MAX_VALUE) % instances;
+  }
+
+  /**
+   * Joins the group for an address and claims its lowest free shard. Messages
+   * are keyed either by a field of the message body or by a key function.
+   *
+   * @throws IllegalArgumentException If the group was created with a different
+   *           number of instances.
+   * @throws IllegalStateException If all of the group's shards are claimed.
+   */
+  static Member join(Env env, String address, int instances, String keyField, Callable keyFunction) {
+    while (true) {
+      Group group = groups.get(address);
+      if (group == null) {
+        group = new Group(address, instances);
+        Group existing = groups.putIfAbsent(address, group);
+        if (existing != null) {
+          group = existing;
+        }
+      }
+
+      synchronized (group) {
+        // The last member may have left the group since it was looked up.
+        if (group.closed) {
+          continue;
+        }
+        if (group.instances != instances) {
+          throw new IllegalArgumentException(String.format("Sharded handlers at %s have %d instances, not %d.", address, group.instances, instances));
+        }
+        for (int i = 0; i < group.instances; i++) {
+          if (group.shards[i] == null) {
+            Member member = new Member(env, group, i, keyField, keyFunction);
+            group.shards[i] = member;
+            return member;
+          }
+        }
+        throw new IllegalStateException(String.format("All %d shards at %s are claimed.", group.instances, address));
+      }
+    }
+  }
+
+  /**
+   * Records the handler registered for a member's shard. If the group has no
+   * router yet the member's router is registered at the group's address.
+   */
+  static void addMember(org.vertx.java.core.Handler<?> handler, Member member) {
+    members.put(handler, member);
+    Group group = member.group;
+    synchronized (group) {
+      if (group.routing == null) {
+        group.routing = member;
+        register(member);
+        AddressMetrics.acquire(group.address);
+      }
+    }
+  }
+
+  /**
+   * Removes a shard handler from its group, freeing its shard. If the handler's
+   * verticle was routing for the group, routing is handed over to another
+   * member.
+   */
+  static void removeMember(org.vertx.java.core.Handler<?> handler) {
+    Member member = members.remove(handler);
+    if (member == null) {
+      return;
+    }
+
+    Group group = member.group;
+    synchronized (group) {
+      group.shards[member.shard] = null;
+      if (group.routing != member) {
+        return;
+      }
+
+      if (member.registered) {
+        PhpVerticleFactory.vertx.eventBus().unregisterHandler(group.address, member.router);
+      }
+      group.routing = null;
+      for (Member next : group.shards) {
+        if (next != null) {
+          handOver(next);
+          return;
+        }
+      }
+
+      group.closed = true;
+      groups.remove(group.address, group);
+      AddressMetrics.release(group.address);
+    }
+  }
+
+  /**
+   * Makes a member the group's router. The router is registered on the
+   * member's own context, unless the member leaves before that happens.
+   */
+  private static void handOver(final Member member) {
+    member.group.routing = member;
+    if (PhpVerticleFactory.vertx.currentContext() == member.context) {
+      register(member);
+      return;
+    }
+
+    member.context.runOnContext(new org.vertx.java.core.Handler<Void>() {
+      @Override
+      public void handle(Void event) {
+        synchronized (member.group) {
+          if (member.group.routing == member && !member.registered) {
+            register(member);
+          }
+        }
+      }
+    });
+  }
+
+  private static void register(Member member) {
+    member.registered = true;
+    PhpVerticleFactory.vertx.eventBus().registerLocalHandler(member.group.address, member.router);
+  }
+
+  /**
+   * Returns routing statistics for an address, or null if no sharded handlers
+   * are registered at the address.
+   */
+  static JsonObject getStats(String address) {
+    Group group = groups.get(address);
+    return group != null ? group.toJson() : null;
+  }
+
+}
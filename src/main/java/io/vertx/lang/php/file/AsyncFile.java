@@ -16,6 +16,7 @@
 package io.vertx.lang.php.file;
 
 import io.vertx.lang.php.buffer.Buffer;
+import io.vertx.lang.php.buffer.CompositeBuffer;
 import io.vertx.lang.php.streams.ReadStream;
 import io.vertx.lang.php.streams.WriteStream;
 import io.vertx.lang.php.util.HandlerFactory;
@@ -66,10 +67,20 @@ public final class AsyncFile implements ReadStream<AsyncFile>, WriteStream<Async
    */
   public AsyncFile write(Env env, Value data, StringValue enc) {
     if (data.isString()) {
-      file.write(new org.vertx.java.core.buffer.Buffer(data.toString()));
+      file.write(PhpTypes.toVertxBuffer(env, data));
     }
     else if (data.isObject()) {
-      file.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
+      Buffer buffer = (Buffer) data.toJavaObject(env, Buffer.class);
+      // Write composite buffers component by component, since the file channel
+      // would otherwise merge the components into a single copy.
+      if (buffer instanceof CompositeBuffer) {
+        for (org.vertx.java.core.buffer.Buffer component : ((CompositeBuffer) buffer).__toVertxBuffers()) {
+          file.write(component);
+        }
+      }
+      else {
+        file.write(buffer.__toVertxBuffer());
+      }
     }
     return this;
   }
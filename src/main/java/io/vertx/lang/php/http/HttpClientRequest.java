@@ -18,7 +18,6 @@ package io.vertx.lang.php.http;
 import io.vertx.lang.php.Gettable;
 import io.vertx.lang.php.MultiMapArray;
 import io.vertx.lang.php.Settable;
-import io.vertx.lang.php.buffer.Buffer;
 import io.vertx.lang.php.streams.ExceptionSupport;
 import io.vertx.lang.php.streams.WriteStream;
 import io.vertx.lang.php.util.HandlerFactory;
@@ -83,21 +82,11 @@ public class HttpClientRequest implements WriteStream<HttpClientRequest>, Except
 
   @Override
   public HttpClientRequest write(Env env, Value data, @Optional StringValue enc) {
-    if (enc != null && !enc.isDefault()) {
-      if (data.isObject()) {
-        request.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
-      }
-      else {
-        request.write(data.toString(), enc.toString());
-      }
+    if (PhpTypes.notNull(enc) && !enc.isDefault() && !data.isObject()) {
+      request.write(data.toString(), enc.toString());
     }
     else {
-      if (data.isObject()) {
-        request.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
-      }
-      else {
-        request.write(data.toString());
-      }
+      request.write(PhpTypes.toVertxBuffer(env, data));
     }
     return this;
   }
@@ -118,7 +107,7 @@ public class HttpClientRequest implements WriteStream<HttpClientRequest>, Except
   }
 
   public void end(Env env, Value data) {
-    request.end(data.toString());
+    request.end(PhpTypes.toVertxBuffer(env, data));
   }
 
   @Override
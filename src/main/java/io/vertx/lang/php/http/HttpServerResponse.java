@@ -18,7 +18,6 @@ package io.vertx.lang.php.http;
 import io.vertx.lang.php.Gettable;
 import io.vertx.lang.php.MultiMapArray;
 import io.vertx.lang.php.Settable;
-import io.vertx.lang.php.buffer.Buffer;
 import io.vertx.lang.php.streams.ExceptionSupport;
 import io.vertx.lang.php.streams.WriteStream;
 import io.vertx.lang.php.util.HandlerFactory;
@@ -129,21 +128,11 @@ public class HttpServerResponse implements WriteStream<HttpServerResponse>, Exce
 
   @Override
   public HttpServerResponse write(Env env, Value data, @Optional StringValue enc) {
-    if (PhpTypes.notNull(enc) && !enc.isDefault()) {
-      if (data.isObject()) {
-        response.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
-      }
-      else {
-        response.write(data.toString(), enc.toString());
-      }
+    if (PhpTypes.notNull(enc) && !enc.isDefault() && !data.isObject()) {
+      response.write(data.toString(), enc.toString());
     }
     else {
-      if (data.isObject()) {
-        response.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
-      }
-      else {
-        response.write(data.toString());
-      }
+      response.write(PhpTypes.toVertxBuffer(env, data));
     }
     return this;
   }
@@ -157,7 +146,7 @@ public class HttpServerResponse implements WriteStream<HttpServerResponse>, Exce
   }
 
   public void end(Env env, Value data) {
-    response.end(data.toString());
+    response.end(PhpTypes.toVertxBuffer(env, data));
   }
 
   @Override
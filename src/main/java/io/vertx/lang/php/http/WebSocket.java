@@ -61,7 +61,7 @@ public class WebSocket implements ReadStream<WebSocket>, WriteStream<WebSocket>,
 
   @Override
   public WebSocket write(Env env, Value data, StringValue enc) {
-    socket.write(new org.vertx.java.core.buffer.Buffer(data.toString()));
+    socket.write(PhpTypes.toVertxBuffer(env, data));
     return this;
   }
 
@@ -69,7 +69,7 @@ public class WebSocket implements ReadStream<WebSocket>, WriteStream<WebSocket>,
    * Writes data to the socket as a binary frame.
    */
   public WebSocket writeBinaryFrame(Env env, Value data) {
-    socket.writeBinaryFrame(new org.vertx.java.core.buffer.Buffer(data.toString()));
+    socket.writeBinaryFrame(PhpTypes.toVertxBuffer(env, data));
     return this;
   }
 
@@ -16,13 +16,13 @@
 package io.vertx.lang.php.net;
 
 import io.vertx.lang.php.Gettable;
-import io.vertx.lang.php.buffer.Buffer;
 import io.vertx.lang.php.streams.ExceptionSupport;
 import io.vertx.lang.php.streams.ReadStream;
 import io.vertx.lang.php.streams.WriteStream;
 import io.vertx.lang.php.util.HandlerFactory;
 import io.vertx.lang.php.util.PhpTypes;
 
+import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.NumberValue;
@@ -120,14 +120,15 @@ public class NetSocket implements ReadStream<NetSocket>, WriteStream<NetSocket>,
   }
 
   /**
-   * Writes a value to the socket.
+   * Writes a value to the socket. Strings are written as raw bytes unless
+   * an encoding is given.
    */
-  public NetSocket write(Env env, Value data, StringValue enc) {
-    if (data.isObject()) {
-      socket.write(((Buffer) data.toJavaObject(env, Buffer.class)).__toVertxBuffer());
+  public NetSocket write(Env env, Value data, @Optional StringValue enc) {
+    if (PhpTypes.notNull(enc) && enc.length() > 0 && !data.isObject()) {
+      socket.write(data.toString(), enc.toString());
     }
     else {
-      socket.write(data.toString());
+      socket.write(PhpTypes.toVertxBuffer(env, data));
     }
     return this;
   }
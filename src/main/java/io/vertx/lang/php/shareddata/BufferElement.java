@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import java.util.Arrays;
+
+import org.vertx.java.core.shareddata.Shareable;
+
+/**
+ * The contents of a buffer stored as a shared set element.
+ *
+ * Vert.x buffers don't override hashCode(), so equal buffers can't be found
+ * in a hash set. Elements hold an immutable copy of the buffer's bytes and
+ * compare by value instead.
+ *
+ * @author Jordan Halterman
+ */
+final class BufferElement implements Shareable {
+
+  private final byte[] bytes;
+
+  private final int hash;
+
+  BufferElement(org.vertx.java.core.buffer.Buffer buffer) {
+    this.bytes = buffer.getBytes();
+    this.hash = Arrays.hashCode(bytes);
+  }
+
+  /**
+   * Returns a new Vert.x buffer holding a copy of the element's bytes.
+   */
+  org.vertx.java.core.buffer.Buffer toBuffer() {
+    return new org.vertx.java.core.buffer.Buffer(bytes.clone());
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    return object instanceof BufferElement && Arrays.equals(bytes, ((BufferElement) object).bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+}
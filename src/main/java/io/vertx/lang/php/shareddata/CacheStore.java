@@ -0,0 +1,421 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.vertx.java.core.buffer.Buffer;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.Value;
+
+/**
+ * A bounded cache shared by all PHP verticles in the JVM.
+ *
+ * Entries are evicted in least recently used order once the cache holds
+ * more than its maximum number of entries or its maximum estimated size, and
+ * entries with a time to live expire lazily when they are next read. Caches
+ * are registered as JMX beans under io.vertx.lang.php:type=SharedCache.
+ *
+ * Since every read updates the recency of an entry, the cache is split into
+ * segments by key hash, each with its own lock, its own share of the limits
+ * and its own LRU order, so that verticles reading different keys rarely
+ * contend. Eviction is therefore least recently used per segment rather than
+ * across the whole cache. Small caches use fewer segments so that each
+ * segment still holds enough entries for LRU eviction to be meaningful.
+ *
+ * @author Jordan Halterman
+ */
+public class CacheStore implements CacheStoreMBean {
+
+  private static final ConcurrentMap<String, CacheStore> stores = new ConcurrentHashMap<String, CacheStore>();
+
+  private static final int MAX_SEGMENTS = 16;
+
+  /**
+   * The minimum number of entries, or the minimum size in bytes, that each
+   * segment must be allowed before a cache is split into more segments.
+   */
+  private static final int MIN_SEGMENT_ENTRIES = 20;
+  private static final long MIN_SEGMENT_BYTES = 64 * 1024;
+
+  private final String name;
+
+  private final int maxEntries;
+
+  private final long maxBytes;
+
+  private final long ttl;
+
+  private final Segment[] segments;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final AtomicLong expirations = new AtomicLong();
+
+  private static final class Entry {
+    private final Object value;
+    private final long size;
+    private final long expires;
+
+    private Entry(Object value, long size, long expires) {
+      this.value = value;
+      this.size = size;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * A part of the cache, guarded by its own monitor.
+   */
+  private final class Segment {
+    /**
+     * Entries from least to most recently used. Entries are moved to the end
+     * explicitly when they're read, so that they can also be looked up
+     * without changing their order.
+     */
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>();
+    private final int maxEntries;
+    private final long maxBytes;
+    private long bytes;
+
+    private Segment(int maxEntries, long maxBytes) {
+      this.maxEntries = maxEntries;
+      this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the entry for a key if it hasn't expired, removing it if it has.
+     */
+    private Entry find(Object key) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.expires != 0 && entry.expires - System.nanoTime() <= 0) {
+        entries.remove(key);
+        bytes -= entry.size;
+        expirations.incrementAndGet();
+        return null;
+      }
+      return entry;
+    }
+
+    private synchronized Object get(Object key) {
+      Entry entry = find(key);
+      if (entry == null) {
+        return null;
+      }
+      entries.remove(key);
+      entries.put(key, entry);
+      return entry.value;
+    }
+
+    private synchronized boolean contains(Object key) {
+      return find(key) != null;
+    }
+
+    private synchronized void put(Object key, Entry entry) {
+      // Remove any previous entry first so that the new one is the most recent.
+      Entry previous = entries.remove(key);
+      if (previous != null) {
+        bytes -= previous.size;
+      }
+      entries.put(key, entry);
+      bytes += entry.size;
+
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (iterator.hasNext() && ((maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes))) {
+        Entry eldest = iterator.next();
+        iterator.remove();
+        bytes -= eldest.size;
+        evictions.incrementAndGet();
+      }
+    }
+
+    private synchronized boolean remove(Object key) {
+      Entry entry = entries.remove(key);
+      if (entry != null) {
+        bytes -= entry.size;
+        return true;
+      }
+      return false;
+    }
+
+    private synchronized int size() {
+      return entries.size();
+    }
+
+    private synchronized long bytes() {
+      return bytes;
+    }
+
+    private synchronized void clear() {
+      entries.clear();
+      bytes = 0;
+    }
+  }
+
+  CacheStore(String name, int maxEntries, long maxBytes, long ttl) {
+    this.name = name;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.ttl = ttl;
+
+    int count = 1;
+    while (count < MAX_SEGMENTS && (maxEntries <= 0 || count * 2 * MIN_SEGMENT_ENTRIES <= maxEntries)
+        && (maxBytes <= 0 || count * 2 * MIN_SEGMENT_BYTES <= maxBytes)) {
+      count *= 2;
+    }
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      // Spread the remainder of the limits over the first segments.
+      int segmentEntries = maxEntries > 0 ? maxEntries / count + (i < maxEntries % count ? 1 : 0) : 0;
+      long segmentBytes = maxBytes > 0 ? maxBytes / count + (i < maxBytes % count ? 1 : 0) : 0;
+      segments[i] = new Segment(segmentEntries, segmentBytes);
+    }
+  }
+
+  private Segment segmentFor(Object key) {
+    int hash = key != null ? key.hashCode() : 0;
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /**
+   * Returns the cache with the given name, creating it with the given limits
+   * if it doesn't exist. The limits of an existing cache are not changed.
+   */
+  static CacheStore get(String name, int maxEntries, long maxBytes, long ttl) {
+    CacheStore store = stores.get(name);
+    if (store == null) {
+      store = new CacheStore(name, maxEntries, maxBytes, ttl);
+      CacheStore existing = stores.putIfAbsent(name, store);
+      if (existing != null) {
+        return existing;
+      }
+      store.register();
+    }
+    return store;
+  }
+
+  /**
+   * Removes the cache with the given name.
+   */
+  static boolean remove(String name) {
+    CacheStore store = stores.remove(name);
+    if (store != null) {
+      store.unregister();
+      return true;
+    }
+    return false;
+  }
+
+  private ObjectName objectName() throws JMException {
+    return new ObjectName("io.vertx.lang.php:type=SharedCache,name=" + ObjectName.quote(name));
+  }
+
+  /**
+   * Registers the cache with the platform MBean server. Registration is best
+   * effort, since another module may already have registered the name.
+   */
+  private void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+    }
+    catch (JMException e) {
+      // Statistics are still available through SharedCache::stats().
+    }
+  }
+
+  private void unregister() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+    }
+    catch (JMException e) {
+      // The cache was never registered.
+    }
+  }
+
+  /**
+   * Returns a cached value, or null if the key is not cached or has expired.
+   */
+  Object get(Object key) {
+    Object value = segmentFor(key).get(key);
+    if (value == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return value instanceof Buffer ? ((Buffer) value).copy() : value;
+  }
+
+  /**
+   * Indicates whether a key is cached and hasn't expired. Unlike get(), this
+   * doesn't count as a use of the entry or as a hit or miss.
+   */
+  boolean contains(Object key) {
+    return segmentFor(key).contains(key);
+  }
+
+  /**
+   * Caches a value.
+   *
+   * @param key The key.
+   * @param value The value, which must already be converted for sharing.
+   * @param ttl The time to live in milliseconds, or zero for the cache
+   *          default.
+   */
+  void put(Object key, Object value, long ttl) {
+    if (value instanceof Buffer) {
+      value = ((Buffer) value).copy();
+    }
+    long expiresIn = ttl > 0 ? ttl : this.ttl;
+    long expires = expiresIn > 0 ? System.nanoTime() + expiresIn * 1000000 : 0;
+    // Zero is reserved for entries that never expire.
+    if (expiresIn > 0 && expires == 0) {
+      expires = 1;
+    }
+    segmentFor(key).put(key, new Entry(value, sizeOf(key) + sizeOf(value), expires));
+  }
+
+  /**
+   * Removes a cached value.
+   */
+  boolean remove(Object key) {
+    return segmentFor(key).remove(key);
+  }
+
+  /**
+   * Estimates the memory used by a cached key or value. Frozen arrays are
+   * walked once when they are cached.
+   */
+  private static long sizeOf(Object value) {
+    if (value instanceof String) {
+      return 2 * ((String) value).length();
+    }
+    else if (value instanceof Buffer) {
+      return ((Buffer) value).length();
+    }
+    else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    }
+    else if (value instanceof FrozenValue) {
+      return sizeOf(((FrozenValue) value).value);
+    }
+    return 8;
+  }
+
+  private static long sizeOf(Value value) {
+    if (value.isArray()) {
+      long size = 0;
+      for (Map.Entry<Value, Value> entry : ((ArrayValue) value.toValue()).entrySet()) {
+        // Each array entry costs roughly 32 bytes in addition to its key and value.
+        size += 32 + sizeOf(entry.getKey()) + sizeOf(entry.getValue().toValue());
+      }
+      return size;
+    }
+    else if (value.isString()) {
+      return value.length();
+    }
+    return 8;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  @Override
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public long getTtl() {
+    return ttl;
+  }
+
+  @Override
+  public int getEntries() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  @Override
+  public long getBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.bytes();
+    }
+    return bytes;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public double getHitRate() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total > 0 ? (double) hits / total : 0;
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public long getExpirations() {
+    return expirations.get();
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+/**
+ * JMX interface for shared cache statistics.
+ *
+ * @author Jordan Halterman
+ */
+public interface CacheStoreMBean {
+
+  String getName();
+
+  int getMaxEntries();
+
+  long getMaxBytes();
+
+  long getTtl();
+
+  int getEntries();
+
+  long getBytes();
+
+  long getHits();
+
+  long getMisses();
+
+  double getHitRate();
+
+  long getEvictions();
+
+  long getExpirations();
+
+  void clear();
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import org.vertx.java.core.shareddata.Shareable;
+
+import com.caucho.quercus.env.Value;
+
+/**
+ * An immutable PHP value stored in shared data.
+ *
+ * Frozen values are built once when they are stored, and the same value is
+ * returned to every reader. Quercus copies immutable arrays on write, so
+ * changes a verticle makes to a value it has read are never visible to other
+ * verticles.
+ *
+ * @author Jordan Halterman
+ */
+final class FrozenValue implements Shareable {
+
+  final Value value;
+
+  FrozenValue(Value value) {
+    this.value = value;
+  }
+
+}
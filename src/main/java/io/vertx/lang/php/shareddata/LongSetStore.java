@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A set of longs shared by all PHP verticles in the JVM.
+ *
+ * Elements are stored unboxed in an open addressing table with linear
+ * probing. Zero marks empty slots, so whether the set contains zero is
+ * tracked separately, and removals shift later entries back rather than
+ * leaving tombstones. Bulk operations take the lock once for all of their
+ * elements.
+ *
+ * @author Jordan Halterman
+ */
+final class LongSetStore {
+
+  private static final ConcurrentMap<String, LongSetStore> stores = new ConcurrentHashMap<String, LongSetStore>();
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private long[] table = new long[INITIAL_CAPACITY];
+
+  private int size;
+
+  private boolean containsZero;
+
+  /**
+   * Returns the set with the given name, creating it if it doesn't exist.
+   */
+  static LongSetStore get(String name) {
+    LongSetStore store = stores.get(name);
+    if (store == null) {
+      store = new LongSetStore();
+      LongSetStore existing = stores.putIfAbsent(name, store);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return store;
+  }
+
+  static boolean remove(String name) {
+    return stores.remove(name) != null;
+  }
+
+  boolean add(long value) {
+    lock.writeLock().lock();
+    try {
+      return doAdd(value);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds all of the given values.
+   *
+   * @return The number of values which were added.
+   */
+  int addAll(long[] values) {
+    lock.writeLock().lock();
+    try {
+      int added = 0;
+      for (long value : values) {
+        if (doAdd(value)) {
+          added++;
+        }
+      }
+      return added;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  boolean contains(long value) {
+    lock.readLock().lock();
+    try {
+      return doContains(value);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  boolean containsAll(long[] values) {
+    lock.readLock().lock();
+    try {
+      for (long value : values) {
+        if (!doContains(value)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  boolean remove(long value) {
+    lock.writeLock().lock();
+    try {
+      if (value == 0) {
+        if (!containsZero) {
+          return false;
+        }
+        containsZero = false;
+        size--;
+        return true;
+      }
+
+      int mask = table.length - 1;
+      int index = index(value, mask);
+      while (table[index] != value) {
+        if (table[index] == 0) {
+          return false;
+        }
+        index = (index + 1) & mask;
+      }
+
+      // Shift back any following entries which would no longer be reachable
+      // from their home slots.
+      int free = index;
+      index = (index + 1) & mask;
+      while (table[index] != 0) {
+        int home = index(table[index], mask);
+        if (((index - home) & mask) >= ((index - free) & mask)) {
+          table[free] = table[index];
+          free = index;
+        }
+        index = (index + 1) & mask;
+      }
+      table[free] = 0;
+      size--;
+      return true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      table = new long[INITIAL_CAPACITY];
+      size = 0;
+      containsZero = false;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  long[] toArray() {
+    lock.readLock().lock();
+    try {
+      long[] values = new long[size];
+      int i = 0;
+      if (containsZero) {
+        values[i++] = 0;
+      }
+      for (long value : table) {
+        if (value != 0) {
+          values[i++] = value;
+        }
+      }
+      return values;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private boolean doAdd(long value) {
+    if (value == 0) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+      size++;
+      return true;
+    }
+
+    int mask = table.length - 1;
+    int index = index(value, mask);
+    while (table[index] != 0) {
+      if (table[index] == value) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    table[index] = value;
+    size++;
+
+    // Keep the table at most half full so that probe sequences stay short.
+    if (size * 2 > table.length) {
+      resize(table.length * 2);
+    }
+    return true;
+  }
+
+  private boolean doContains(long value) {
+    if (value == 0) {
+      return containsZero;
+    }
+    int mask = table.length - 1;
+    int index = index(value, mask);
+    while (table[index] != 0) {
+      if (table[index] == value) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  private void resize(int capacity) {
+    long[] old = table;
+    table = new long[capacity];
+    int mask = capacity - 1;
+    for (long value : old) {
+      if (value != 0) {
+        int index = index(value, mask);
+        while (table[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        table[index] = value;
+      }
+    }
+  }
+
+  /**
+   * Returns the home slot of a value, mixing its bits with the murmur3
+   * finalizer so that sequential IDs are spread across the table.
+   */
+  private static int index(long value, int mask) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return (int) value & mask;
+  }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import io.vertx.lang.php.buffer.Buffer;
+import io.vertx.lang.php.util.PhpTypes;
+
+import java.nio.ByteBuffer;
+
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.spl.ArrayAccess;
+import com.caucho.quercus.lib.spl.Countable;
+
+/**
+ * Wraps an off-heap map in a PHP friendly interface.
+ *
+ * Keys and values are binary strings. Values may also be given as
+ * Vertx\Buffer objects, and can be read back either as strings or as
+ * buffers. Values are copied out of the mapped memory while the store's lock
+ * is held, so concurrent writes never tear them. Once the map has been
+ * removed, any use of it is an error.
+ *
+ * @author Jordan Halterman
+ */
+public class OffHeapMap implements ArrayAccess, Countable {
+
+  private OffHeapStore store;
+
+  OffHeapMap(OffHeapStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public boolean offsetExists(Value key) {
+    try {
+      return store.contains(PhpTypes.toByteBuffer(key));
+    }
+    catch (IllegalStateException e) {
+      Env.getCurrent().error(e.getMessage());
+      return false;
+    }
+  }
+
+  @Override
+  public Value offsetGet(Value key) {
+    return get(Env.getCurrent(), key);
+  }
+
+  @Override
+  public Value offsetSet(Value key, Value value) {
+    put(Env.getCurrent(), key, value);
+    return null;
+  }
+
+  @Override
+  public Value offsetUnset(Value key) {
+    remove(Env.getCurrent(), key);
+    return null;
+  }
+
+  @Override
+  public int count() {
+    try {
+      return store.count();
+    }
+    catch (IllegalStateException e) {
+      Env.getCurrent().error(e.getMessage());
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the value for a key as a binary string, or NULL if the key isn't
+   * stored.
+   */
+  public Value get(Env env, Value key) {
+    byte[] value = getBytes(env, key);
+    if (value == null) {
+      return NullValue.NULL;
+    }
+    return env.createBinaryBuilder(value);
+  }
+
+  /**
+   * Returns the value for a key as a buffer, or NULL if the key isn't stored.
+   *
+   * The buffer holds a copy of the value, so changes to it are not written to
+   * the map.
+   */
+  public Value getBuffer(Env env, Value key) {
+    byte[] value = getBytes(env, key);
+    if (value == null) {
+      return NullValue.NULL;
+    }
+    return env.wrapJava(new Buffer(new org.vertx.java.core.buffer.Buffer(value)));
+  }
+
+  private byte[] getBytes(Env env, Value key) {
+    try {
+      return store.get(PhpTypes.toByteBuffer(key));
+    }
+    catch (IllegalStateException e) {
+      env.error(e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Stores a value for a key.
+   *
+   * @param key The key.
+   * @param value A string or Vertx\Buffer. Setting a NULL value removes the
+   *          key.
+   * @return The called object.
+   */
+  public OffHeapMap put(Env env, Value key, Value value) {
+    if (PhpTypes.isNull(value)) {
+      remove(env, key);
+      return this;
+    }
+
+    try {
+      store.put(PhpTypes.toByteBuffer(key), toByteBuffer(env, value));
+    }
+    catch (IllegalArgumentException e) {
+      env.error(e.getMessage());
+    }
+    catch (IllegalStateException e) {
+      env.error(e.getMessage());
+    }
+    return this;
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @return Indicates whether the key was stored.
+   */
+  public Value remove(Env env, Value key) {
+    try {
+      return BooleanValue.create(store.remove(PhpTypes.toByteBuffer(key)));
+    }
+    catch (IllegalStateException e) {
+      env.error(e.getMessage());
+      return BooleanValue.FALSE;
+    }
+  }
+
+  /**
+   * Writes changes to the map's file so it can be reopened as a snapshot.
+   *
+   * @return The called object.
+   */
+  public OffHeapMap flush(Env env) {
+    store.flush();
+    return this;
+  }
+
+  /**
+   * Returns the maximum number of keys the map can hold.
+   */
+  public int capacity(Env env) {
+    return store.capacity();
+  }
+
+  /**
+   * Returns the path of the map's file.
+   */
+  public StringValue path(Env env) {
+    return env.createString(store.path());
+  }
+
+  private static ByteBuffer toByteBuffer(Env env, Value value) {
+    if (value.isObject()) {
+      Object object = value.toJavaObject();
+      if (object instanceof Buffer) {
+        return ((Buffer) object).__toVertxBuffer().getByteBuf().nioBuffer();
+      }
+    }
+    return PhpTypes.toByteBuffer(value);
+  }
+
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed capacity hash map stored in a memory-mapped file.
+ *
+ * Keys and values are byte strings stored in fixed-size slots, and
+ * collisions are resolved by linear probing. Removals shift later entries
+ * back rather than leaving tombstones, so a map which changes constantly
+ * doesn't fill up with deleted slots. Since the data lives outside of
+ * the Java heap, large maps don't add to garbage collection pauses, and an
+ * existing map file is opened by mapping it rather than by reading it, so
+ * snapshots of large data sets are available immediately at startup.
+ *
+ * The file starts with a header followed by the slots:
+ *
+ * header: magic (4), version (4), capacity (4), key size (4), value size (4), count (4)
+ * slot:   state (1), unused (1), key length (2), key hash (4), value length (4), key, value
+ *
+ * Stores are shared by all PHP verticles in the JVM. A file can only be open
+ * in one store at a time, since each store has its own lock and count.
+ *
+ * @author Jordan Halterman
+ */
+public final class OffHeapStore {
+
+  private static final ConcurrentMap<String, OffHeapStore> stores = new ConcurrentHashMap<String, OffHeapStore>();
+
+  /**
+   * The names of open stores by the canonical paths of their files.
+   */
+  private static final ConcurrentMap<String, String> paths = new ConcurrentHashMap<String, String>();
+
+  private static final int MAGIC = 0x56584d50;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 64;
+
+  private static final int COUNT_OFFSET = 20;
+
+  private static final int SLOT_HEADER_SIZE = 12;
+
+  private static final byte EMPTY = 0;
+
+  private static final byte USED = 1;
+
+  static final int DEFAULT_CAPACITY = 1024;
+
+  static final int DEFAULT_KEY_SIZE = 64;
+
+  static final int DEFAULT_VALUE_SIZE = 256;
+
+  private final File file;
+
+  private final String canonicalPath;
+
+  private final boolean readOnly;
+
+  private final int capacity;
+
+  private final int keySize;
+
+  private final int valueSize;
+
+  private final int slotSize;
+
+  private final int slotsPerChunk;
+
+  private final MappedByteBuffer header;
+
+  /**
+   * The mapped slots. Files larger than 2GB are mapped in several chunks,
+   * since a single mapping is limited to Integer.MAX_VALUE bytes.
+   */
+  private final MappedByteBuffer[] chunks;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int count;
+
+  private boolean closed;
+
+  private OffHeapStore(File file, boolean readOnly, int capacity, int keySize, int valueSize) throws IOException {
+    if (capacity <= 0 || keySize <= 0 || keySize > 0xffff || valueSize < 0) {
+      throw new IllegalArgumentException("Invalid off-heap map dimensions.");
+    }
+    if ((long) SLOT_HEADER_SIZE + keySize + valueSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Off-heap map slots must be smaller than 2GB.");
+    }
+
+    this.file = file;
+    this.canonicalPath = file.getCanonicalPath();
+    this.readOnly = readOnly;
+    this.capacity = capacity;
+    this.keySize = keySize;
+    this.valueSize = valueSize;
+    this.slotSize = SLOT_HEADER_SIZE + keySize + valueSize;
+    this.slotsPerChunk = Integer.MAX_VALUE / slotSize;
+
+    RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+    try {
+      long length = HEADER_SIZE + (long) capacity * slotSize;
+      if (!readOnly && raf.length() < length) {
+        raf.setLength(length);
+      }
+      FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+      FileChannel channel = raf.getChannel();
+      header = channel.map(mode, 0, HEADER_SIZE);
+      chunks = new MappedByteBuffer[(capacity + slotsPerChunk - 1) / slotsPerChunk];
+      for (int i = 0; i < chunks.length; i++) {
+        int slots = Math.min(slotsPerChunk, capacity - i * slotsPerChunk);
+        chunks[i] = channel.map(mode, HEADER_SIZE + (long) i * slotsPerChunk * slotSize, (long) slots * slotSize);
+      }
+    }
+    finally {
+      raf.close();
+    }
+
+    if (header.getInt(0) == MAGIC) {
+      count = header.getInt(COUNT_OFFSET);
+    }
+    else {
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putInt(8, capacity);
+      header.putInt(12, keySize);
+      header.putInt(16, valueSize);
+      header.putInt(COUNT_OFFSET, 0);
+    }
+  }
+
+  /**
+   * Returns the store with the given name, opening it if it isn't open.
+   *
+   * If the file already contains a map it is mapped as is, and the given
+   * dimensions are ignored in favor of those stored in the file. Otherwise a
+   * new map is created in the file. If no file is given, the map is created
+   * in a temporary file which is deleted when the JVM exits.
+   *
+   * @throws IOException If the file can't be opened, or is already open
+   *           under another name.
+   */
+  static synchronized OffHeapStore get(String name, String path, boolean readOnly, int capacity, int keySize, int valueSize) throws IOException {
+    OffHeapStore store = stores.get(name);
+    if (store != null) {
+      return store;
+    }
+
+    File file;
+    if (path != null) {
+      file = new File(path);
+    }
+    else {
+      file = File.createTempFile("vertx-php-", ".map");
+      file.deleteOnExit();
+    }
+
+    if (file.exists() && file.length() > 0) {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        if (raf.readInt() == MAGIC) {
+          if (raf.readInt() != VERSION) {
+            throw new IOException("Unsupported off-heap map version in " + file + ".");
+          }
+          capacity = raf.readInt();
+          keySize = raf.readInt();
+          valueSize = raf.readInt();
+        }
+        else {
+          throw new IOException(file + " is not an off-heap map file.");
+        }
+      }
+      finally {
+        raf.close();
+      }
+    }
+    else if (readOnly) {
+      throw new IOException(file + " does not exist.");
+    }
+
+    String open = paths.get(file.getCanonicalPath());
+    if (open != null) {
+      throw new IOException(file + " is already open as off-heap map " + open + ".");
+    }
+
+    store = new OffHeapStore(file, readOnly, capacity, keySize, valueSize);
+    stores.put(name, store);
+    paths.put(store.canonicalPath, name);
+    return store;
+  }
+
+  /**
+   * Closes the store with the given name, flushing it to disk. Maps which
+   * still refer to the store can no longer use it, and the mapped memory is
+   * released once the store is no longer referenced.
+   */
+  static synchronized boolean remove(String name) {
+    OffHeapStore store = stores.remove(name);
+    if (store != null) {
+      store.flush();
+      store.close();
+      paths.remove(store.canonicalPath);
+      return true;
+    }
+    return false;
+  }
+
+  private void close() {
+    lock.writeLock().lock();
+    try {
+      closed = true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException If the store has been closed.
+   */
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Off-heap map has been removed.");
+    }
+  }
+
+  /**
+   * Returns a copy of the value stored for a key, or null if the key isn't
+   * stored. The value is copied while the lock is held, so it can't be torn
+   * by a concurrent write.
+   *
+   * @throws IllegalStateException If the store has been closed.
+   */
+  byte[] get(ByteBuffer key) {
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      long slot = find(key, hash(key));
+      if (slot < 0) {
+        return null;
+      }
+      ByteBuffer chunk = chunk(slot);
+      int offset = offset(slot);
+      byte[] value = new byte[chunk.getInt(offset + 8)];
+      ByteBuffer source = chunk.duplicate();
+      source.position(offset + SLOT_HEADER_SIZE + keySize);
+      source.get(value);
+      return value;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException If the store has been closed.
+   */
+  boolean contains(ByteBuffer key) {
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      return find(key, hash(key)) >= 0;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Stores a value for a key.
+   *
+   * @throws IllegalArgumentException If the key or value is too large.
+   * @throws IllegalStateException If the store is read only, full or closed.
+   */
+  void put(ByteBuffer key, ByteBuffer value) {
+    if (readOnly) {
+      throw new IllegalStateException("Off-heap map is read only.");
+    }
+    if (key.remaining() > keySize) {
+      throw new IllegalArgumentException("Key exceeds the off-heap map's key size of " + keySize + " bytes.");
+    }
+    if (value.remaining() > valueSize) {
+      throw new IllegalArgumentException("Value exceeds the off-heap map's value size of " + valueSize + " bytes.");
+    }
+
+    int hash = hash(key);
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      long slot = find(key, hash);
+      if (slot < 0) {
+        slot = findFree(hash);
+        if (slot < 0) {
+          throw new IllegalStateException("Off-heap map is full.");
+        }
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        chunk.putShort(offset + 2, (short) key.remaining());
+        chunk.putInt(offset + 4, hash);
+        put(chunk, offset + SLOT_HEADER_SIZE, key);
+        chunk.put(offset, USED);
+        header.putInt(COUNT_OFFSET, ++count);
+      }
+      ByteBuffer chunk = chunk(slot);
+      int offset = offset(slot);
+      chunk.putInt(offset + 8, value.remaining());
+      put(chunk, offset + SLOT_HEADER_SIZE + keySize, value);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @throws IllegalStateException If the store is read only or closed.
+   */
+  boolean remove(ByteBuffer key) {
+    if (readOnly) {
+      throw new IllegalStateException("Off-heap map is read only.");
+    }
+
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      long slot = find(key, hash(key));
+      if (slot < 0) {
+        return false;
+      }
+
+      // Shift back any following entries which would no longer be reachable
+      // from their home slots.
+      long free = slot;
+      slot = next(slot);
+      for (int i = 1; i < capacity && state(slot) == USED; i++) {
+        long home = index(chunk(slot).getInt(offset(slot) + 4));
+        if (distance(home, slot) >= distance(free, slot)) {
+          move(slot, free);
+          free = slot;
+        }
+        slot = next(slot);
+      }
+      chunk(free).put(offset(free), EMPTY);
+      header.putInt(COUNT_OFFSET, --count);
+      return true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException If the store has been closed.
+   */
+  int count() {
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      return count;
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  int keySize() {
+    return keySize;
+  }
+
+  int valueSize() {
+    return valueSize;
+  }
+
+  String path() {
+    return file.getPath();
+  }
+
+  /**
+   * Writes changes to the underlying file so it can be reopened as a
+   * snapshot.
+   */
+  void flush() {
+    if (readOnly) {
+      return;
+    }
+    lock.readLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      header.force();
+      for (MappedByteBuffer chunk : chunks) {
+        chunk.force();
+      }
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the slot holding a key, or -1 if the key isn't stored.
+   */
+  private long find(ByteBuffer key, int hash) {
+    int length = key.remaining();
+    long slot = index(hash);
+    for (int i = 0; i < capacity; i++) {
+      ByteBuffer chunk = chunk(slot);
+      int offset = offset(slot);
+      byte state = chunk.get(offset);
+      if (state == EMPTY) {
+        return -1;
+      }
+      if (chunk.getInt(offset + 4) == hash
+          && (chunk.getShort(offset + 2) & 0xffff) == length
+          && equals(chunk, offset + SLOT_HEADER_SIZE, key)) {
+        return slot;
+      }
+      slot = next(slot);
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the first empty slot in the probe sequence for a hash, or -1 if
+   * the store is full.
+   */
+  private long findFree(int hash) {
+    long slot = index(hash);
+    for (int i = 0; i < capacity; i++) {
+      if (state(slot) == EMPTY) {
+        return slot;
+      }
+      slot = next(slot);
+    }
+    return -1;
+  }
+
+  /**
+   * Copies the entry in one slot over another.
+   */
+  private void move(long from, long to) {
+    ByteBuffer source = chunk(from).duplicate();
+    int offset = offset(from);
+    source.limit(offset + slotSize);
+    source.position(offset);
+    ByteBuffer target = chunk(to).duplicate();
+    target.position(offset(to));
+    target.put(source);
+  }
+
+  private byte state(long slot) {
+    return chunk(slot).get(offset(slot));
+  }
+
+  private long next(long slot) {
+    return slot + 1 == capacity ? 0 : slot + 1;
+  }
+
+  /**
+   * Returns the number of probes from one slot to another.
+   */
+  private long distance(long from, long to) {
+    return to >= from ? to - from : to + capacity - from;
+  }
+
+  private long index(int hash) {
+    return (hash & 0x7fffffffL) % capacity;
+  }
+
+  private ByteBuffer chunk(long slot) {
+    return chunks[(int) (slot / slotsPerChunk)];
+  }
+
+  private int offset(long slot) {
+    return (int) (slot % slotsPerChunk) * slotSize;
+  }
+
+  private static boolean equals(ByteBuffer chunk, int offset, ByteBuffer key) {
+    int position = key.position();
+    int length = key.remaining();
+    for (int i = 0; i < length; i++) {
+      if (chunk.get(offset + i) != key.get(position + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void put(ByteBuffer chunk, int offset, ByteBuffer bytes) {
+    ByteBuffer target = chunk.duplicate();
+    target.position(offset);
+    target.put(bytes.duplicate());
+  }
+
+  /**
+   * Hashes a key with FNV-1a followed by the murmur3 finalizer, which
+   * spreads similar keys across the table.
+   */
+  private static int hash(ByteBuffer key) {
+    int hash = 0x811c9dc5;
+    for (int i = key.position(); i < key.limit(); i++) {
+      hash ^= key.get(i) & 0xff;
+      hash *= 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+}
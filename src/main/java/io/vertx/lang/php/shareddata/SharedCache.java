@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import io.vertx.lang.php.util.PhpTypes;
+
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.spl.ArrayAccess;
+import com.caucho.quercus.lib.spl.Countable;
+
+/**
+ * Wraps a shared cache in a PHP friendly interface.
+ *
+ * Values are converted for sharing in the same way as shared map values, so
+ * cached arrays are frozen once and read without being copied.
+ *
+ * @author Jordan Halterman
+ */
+public class SharedCache implements ArrayAccess, Countable {
+
+  private CacheStore store;
+
+  SharedCache(CacheStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Indicates whether a key is cached. Checking a key with isset() doesn't
+   * count as a use of the entry, nor as a hit or miss.
+   */
+  @Override
+  public boolean offsetExists(Value key) {
+    return store.contains(key.toJavaObject());
+  }
+
+  @Override
+  public Value offsetGet(Value key) {
+    return get(Env.getCurrent(), key);
+  }
+
+  @Override
+  public Value offsetSet(Value key, Value value) {
+    put(Env.getCurrent(), key, value, null);
+    return null;
+  }
+
+  @Override
+  public Value offsetUnset(Value key) {
+    store.remove(key.toJavaObject());
+    return null;
+  }
+
+  @Override
+  public int count() {
+    return store.getEntries();
+  }
+
+  /**
+   * Returns a cached value, or NULL if the key is not cached or has expired.
+   */
+  public Value get(Env env, Value key) {
+    return SharedMap.fromShared(env, store.get(key.toJavaObject()));
+  }
+
+  /**
+   * Caches a value.
+   *
+   * @param key The key.
+   * @param value The value to cache. Setting a NULL value removes the key.
+   * @param ttl An optional time to live in milliseconds. Defaults to the
+   *          cache's ttl option.
+   * @return The called object.
+   */
+  public SharedCache put(Env env, Value key, Value value, @Optional LongValue ttl) {
+    if (PhpTypes.isNull(value)) {
+      store.remove(key.toJavaObject());
+    }
+    else {
+      store.put(key.toJavaObject(), SharedMap.toShared(env, value), PhpTypes.notNull(ttl) ? ttl.toLong() : 0);
+    }
+    return this;
+  }
+
+  /**
+   * Removes a cached value.
+   *
+   * @return Indicates whether the key was cached.
+   */
+  public boolean remove(Env env, Value key) {
+    return store.remove(key.toJavaObject());
+  }
+
+  /**
+   * Removes all cached values.
+   */
+  public SharedCache clear(Env env) {
+    store.clear();
+    return this;
+  }
+
+  /**
+   * Returns an array of cache statistics.
+   */
+  public ArrayValue stats(Env env) {
+    ArrayValue stats = new ArrayValueImpl();
+    stats.put(env.createString("entries"), LongValue.create(store.getEntries()));
+    stats.put(env.createString("bytes"), LongValue.create(store.getBytes()));
+    stats.put(env.createString("hits"), LongValue.create(store.getHits()));
+    stats.put(env.createString("misses"), LongValue.create(store.getMisses()));
+    stats.put(env.createString("hitRate"), DoubleValue.create(store.getHitRate()));
+    stats.put(env.createString("evictions"), LongValue.create(store.getEvictions()));
+    stats.put(env.createString("expirations"), LongValue.create(store.getExpirations()));
+    return stats;
+  }
+
+}
@@ -15,8 +15,12 @@
  */
 package io.vertx.lang.php.shareddata;
 
-import java.util.Set;
+import io.vertx.lang.php.util.PhpTypes;
 
+import java.io.IOException;
+
+import com.caucho.quercus.annotation.Optional;
+import com.caucho.quercus.env.ArrayValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
@@ -42,12 +46,125 @@ public class SharedData {
     return data.removeMap(name.toJavaObject());
   }
 
-  public Set<?> getSet(Env env, StringValue name) {
-    return data.getSet(name.toString());
+  /**
+   * Returns a bounded cache shared by all PHP verticles.
+   *
+   * @param name The name of the cache.
+   * @param options An optional array of options. "maxEntries" limits the
+   *          number of entries, "maxBytes" limits the estimated size of the
+   *          cache in bytes, and "ttl" sets a default time to live for
+   *          entries in milliseconds. Options only apply when the cache is
+   *          first created.
+   * @return A shared cache.
+   */
+  public SharedCache getCache(Env env, StringValue name, @Optional ArrayValue options) {
+    int maxEntries = 0;
+    long maxBytes = 0;
+    long ttl = 0;
+    if (PhpTypes.notNull(options)) {
+      Value option = options.get(env.createString("maxEntries"));
+      if (PhpTypes.notNull(option)) {
+        maxEntries = option.toInt();
+      }
+      option = options.get(env.createString("maxBytes"));
+      if (PhpTypes.notNull(option)) {
+        maxBytes = option.toLong();
+      }
+      option = options.get(env.createString("ttl"));
+      if (PhpTypes.notNull(option)) {
+        ttl = option.toLong();
+      }
+    }
+    return new SharedCache(CacheStore.get(name.toString(), maxEntries, maxBytes, ttl));
+  }
+
+  public boolean removeCache(Env env, StringValue name) {
+    return CacheStore.remove(name.toString());
+  }
+
+  /**
+   * Returns an off-heap map stored in a memory-mapped file, opening it if it
+   * isn't already open. Off-heap maps are shared by all PHP verticles.
+   *
+   * @param name The name of the map.
+   * @param options An optional array of options. "file" is the path of the
+   *          map's file. If the file already holds a map, it is opened as is
+   *          and the remaining options are ignored. "capacity" is the
+   *          maximum number of keys, and "keySize" and "valueSize" are the
+   *          maximum sizes of keys and values in bytes. "readOnly" opens an
+   *          existing file for reading only.
+   * @return An off-heap map.
+   */
+  public OffHeapMap getOffHeapMap(Env env, StringValue name, @Optional ArrayValue options) {
+    String file = null;
+    boolean readOnly = false;
+    int capacity = OffHeapStore.DEFAULT_CAPACITY;
+    int keySize = OffHeapStore.DEFAULT_KEY_SIZE;
+    int valueSize = OffHeapStore.DEFAULT_VALUE_SIZE;
+    if (PhpTypes.notNull(options)) {
+      Value option = options.get(env.createString("file"));
+      if (PhpTypes.notNull(option)) {
+        file = option.toString();
+      }
+      option = options.get(env.createString("readOnly"));
+      if (PhpTypes.notNull(option)) {
+        readOnly = option.toBoolean();
+      }
+      option = options.get(env.createString("capacity"));
+      if (PhpTypes.notNull(option)) {
+        capacity = option.toInt();
+      }
+      option = options.get(env.createString("keySize"));
+      if (PhpTypes.notNull(option)) {
+        keySize = option.toInt();
+      }
+      option = options.get(env.createString("valueSize"));
+      if (PhpTypes.notNull(option)) {
+        valueSize = option.toInt();
+      }
+    }
+
+    try {
+      return new OffHeapMap(OffHeapStore.get(name.toString(), file, readOnly, capacity, keySize, valueSize));
+    }
+    catch (IOException e) {
+      env.error("Failed to open off-heap map " + name + ": " + e.getMessage());
+    }
+    catch (IllegalArgumentException e) {
+      env.error(e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Closes an off-heap map, flushing it to its file.
+   */
+  public boolean removeOffHeapMap(Env env, StringValue name) {
+    return OffHeapStore.remove(name.toString());
+  }
+
+  public SharedSet getSet(Env env, StringValue name) {
+    return new SharedSet(data.<Object>getSet(name.toString()));
   }
 
   public boolean removeSet(Env env, Value name) {
     return data.removeSet(name.toJavaObject());
   }
 
+  /**
+   * Returns a set of integers shared by all PHP verticles. Integers are
+   * stored unboxed, so long sets are cheaper than shared sets for checking
+   * membership of IDs.
+   *
+   * @param name The name of the set.
+   * @return A shared set of integers.
+   */
+  public SharedLongSet getLongSet(Env env, StringValue name) {
+    return new SharedLongSet(LongSetStore.get(name.toString()));
+  }
+
+  public boolean removeLongSet(Env env, StringValue name) {
+    return LongSetStore.remove(name.toString());
+  }
+
 }
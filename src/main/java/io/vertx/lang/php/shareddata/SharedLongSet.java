@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import java.util.Iterator;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.spl.Countable;
+
+/**
+ * Wraps a shared set of integers in a PHP friendly interface.
+ *
+ * Integers are stored without being boxed, which makes long sets much
+ * cheaper than shared sets for ID membership checks.
+ *
+ * @author Jordan Halterman
+ */
+public class SharedLongSet implements Countable {
+
+  private LongSetStore store;
+
+  SharedLongSet(LongSetStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public int count() {
+    return store.size();
+  }
+
+  /**
+   * Adds an integer to the set.
+   *
+   * @return Indicates whether the integer was added.
+   */
+  public boolean add(Env env, long value) {
+    return store.add(value);
+  }
+
+  /**
+   * Adds all of the integers in an array to the set.
+   *
+   * @return The number of integers which were added.
+   */
+  public int addAll(Env env, ArrayValue values) {
+    return store.addAll(toLongs(env, values));
+  }
+
+  /**
+   * Indicates whether the set contains an integer.
+   */
+  public boolean contains(Env env, long value) {
+    return store.contains(value);
+  }
+
+  /**
+   * Indicates whether the set contains all of the integers in an array.
+   */
+  public boolean containsAll(Env env, ArrayValue values) {
+    return store.containsAll(toLongs(env, values));
+  }
+
+  /**
+   * Removes an integer from the set.
+   *
+   * @return Indicates whether the integer was removed.
+   */
+  public boolean remove(Env env, long value) {
+    return store.remove(value);
+  }
+
+  /**
+   * Removes all integers from the set.
+   *
+   * @return The called object.
+   */
+  public SharedLongSet clear(Env env) {
+    store.clear();
+    return this;
+  }
+
+  /**
+   * Returns the integers in the set as a PHP array, in no particular order.
+   */
+  public ArrayValue toArray(Env env) {
+    ArrayValue array = new ArrayValueImpl();
+    for (long value : store.toArray()) {
+      array.append(LongValue.create(value));
+    }
+    return array;
+  }
+
+  private static long[] toLongs(Env env, ArrayValue values) {
+    long[] longs = new long[values.getSize()];
+    Iterator<Value> iter = values.getValueIterator(env);
+    int i = 0;
+    while (iter.hasNext()) {
+      longs[i++] = iter.next().toLong();
+    }
+    return longs;
+  }
+
+}
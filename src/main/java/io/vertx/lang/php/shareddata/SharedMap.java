@@ -15,15 +15,24 @@
  */
 package io.vertx.lang.php.shareddata;
 
+import io.vertx.lang.php.buffer.Buffer;
+import io.vertx.lang.php.util.PhpTypes;
+
 import org.vertx.java.core.shareddata.ConcurrentSharedMap;
 
+import com.caucho.quercus.annotation.Optional;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.lib.spl.ArrayAccess;
 
 /**
  * Wraps a Vert.x shared map in a PHP friendly interface.
  *
+ * Arrays are frozen into immutable arrays when they are stored, so any
+ * verticle can read them without converting or copying them.
+ *
  * @author Jordan Halterman
  */
 public class SharedMap implements ArrayAccess {
@@ -41,12 +50,20 @@ public class SharedMap implements ArrayAccess {
 
   @Override
   public Value offsetGet(Value key) {
-    return Env.getCurrent().wrapJava(map.get(key.toJavaObject()));
+    return SharedMap.fromShared(Env.getCurrent(), map.get(key.toJavaObject()));
   }
 
   @Override
   public Value offsetSet(Value key, Value value) {
-    map.put(key.toJavaObject(), value.toJavaObject());
+    if (PhpTypes.isNull(value)) {
+      map.remove(key.toJavaObject());
+    }
+    else {
+      Object shared = SharedMap.toShared(Env.getCurrent(), value);
+      if (shared != null) {
+        map.put(key.toJavaObject(), shared);
+      }
+    }
     return null;
   }
 
@@ -56,4 +73,205 @@ public class SharedMap implements ArrayAccess {
     return null;
   }
 
+  /**
+   * Atomically adds a delta to an integer value, setting the value to the
+   * delta if the key is not set.
+   *
+   * @param key The key to increment.
+   * @param delta An optional delta. Defaults to 1.
+   * @return The new value.
+   */
+  public long increment(Env env, Value key, @Optional("1") LongValue delta) {
+    Object k = key.toJavaObject();
+    long d = delta.toLong();
+    while (true) {
+      Object current = map.get(k);
+      if (current == null) {
+        if (map.putIfAbsent(k, d) == null) {
+          return d;
+        }
+      }
+      else if (current instanceof Long || current instanceof Integer || current instanceof Short || current instanceof Byte) {
+        long next = ((Number) current).longValue() + d;
+        if (map.replace(k, current, next)) {
+          return next;
+        }
+      }
+      else {
+        env.error("Value to increment in a shared map must be an integer.");
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Sets a value if the key is not already set. As with assignment, a NULL
+   * value leaves the key unset.
+   *
+   * @return The existing value, or NULL if the value was set.
+   */
+  public Value putIfAbsent(Env env, Value key, Value value) {
+    Object k = key.toJavaObject();
+    if (PhpTypes.isNull(value)) {
+      return SharedMap.fromShared(env, map.get(k));
+    }
+    Object shared = SharedMap.toShared(env, value);
+    if (shared == null) {
+      return NullValue.NULL;
+    }
+    return SharedMap.fromShared(env, map.putIfAbsent(k, shared));
+  }
+
+  /**
+   * Sets a value if the current value is equal to an expected value.
+   * Buffers are compared by their contents. An expected value of NULL
+   * matches a key which is not set, and as with assignment, a NULL value
+   * removes the key.
+   *
+   * @return Indicates whether the value was set.
+   */
+  public boolean compareAndSet(Env env, Value key, Value expected, Value value) {
+    Object k = key.toJavaObject();
+    Object next = null;
+    if (!PhpTypes.isNull(value)) {
+      next = SharedMap.toShared(env, value);
+      if (next == null) {
+        return false;
+      }
+    }
+
+    while (true) {
+      Object current = map.get(k);
+      if (current == null) {
+        if (!PhpTypes.isNull(expected)) {
+          return false;
+        }
+        if (next == null || map.putIfAbsent(k, next) == null) {
+          return true;
+        }
+      }
+      else if (!SharedMap.matches(env, current, expected)) {
+        return false;
+      }
+      else if (next == null ? map.remove(k, current) : map.replace(k, current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Replaces the value of a key only if the key is already set. As with
+   * assignment, a NULL value removes the key.
+   *
+   * @return The previous value, or NULL if the key was not set.
+   */
+  public Value replace(Env env, Value key, Value value) {
+    Object k = key.toJavaObject();
+    if (PhpTypes.isNull(value)) {
+      return SharedMap.fromShared(env, map.remove(k));
+    }
+    Object shared = SharedMap.toShared(env, value);
+    if (shared == null) {
+      return NullValue.NULL;
+    }
+    return SharedMap.fromShared(env, map.replace(k, shared));
+  }
+
+  /**
+   * Returns the value of a key, computing and setting it first if the key
+   * is not set. The callback may be called by several verticles at once, in
+   * which case only the first value to be set is kept and returned. If the
+   * callback returns NULL the key is left unset.
+   *
+   * @param key The key to get.
+   * @param callback A callable which is called with the key and returns the
+   *          value to set.
+   * @return The current value.
+   */
+  public Value computeIfAbsent(Env env, Value key, Value callback) {
+    PhpTypes.assertCallable(env, callback, "Callback argument to Vertx\\SharedData\\SharedMap::computeIfAbsent() must be callable.");
+    Object k = key.toJavaObject();
+    Object current = map.get(k);
+    if (current == null) {
+      Value value = PhpTypes.toCallable(callback).call(env, key);
+      if (PhpTypes.isNull(value)) {
+        return NullValue.NULL;
+      }
+      Object computed = SharedMap.toShared(env, value);
+      if (computed == null) {
+        return NullValue.NULL;
+      }
+      current = map.putIfAbsent(k, computed);
+      if (current == null) {
+        current = computed;
+      }
+    }
+    return SharedMap.fromShared(env, current);
+  }
+
+  /**
+   * Removes a key and returns its value.
+   *
+   * @return The removed value, or NULL if the key was not set.
+   */
+  public Value getAndRemove(Env env, Value key) {
+    return SharedMap.fromShared(env, map.remove(key.toJavaObject()));
+  }
+
+  /**
+   * Converts a PHP value to a value that can be stored in shared data.
+   * Arrays are frozen and buffers are stored as Vert.x buffers, which the
+   * shared map copies. Other scalars are stored as Java values so that they
+   * can be shared with verticles written in other languages.
+   */
+  static Object toShared(Env env, Value value) {
+    value = value.toValue();
+    if (value.isArray()) {
+      Value frozen = PhpTypes.toSharedArray(env, value);
+      if (frozen == null) {
+        env.error("Shared data arrays must not contain objects.");
+        return null;
+      }
+      return new FrozenValue(frozen);
+    }
+    else if (value.isObject()) {
+      Object object = value.toJavaObject();
+      if (object instanceof Buffer) {
+        return ((Buffer) object).__toVertxBuffer();
+      }
+      env.error("Shared data values must be scalars, arrays or Vertx\\Buffer objects.");
+      return null;
+    }
+    return value.toJavaObject();
+  }
+
+  /**
+   * Indicates whether a stored value equals an expected PHP value. Buffers
+   * are compared by their contents, while byte arrays are copied on each read
+   * and never match.
+   */
+  private static boolean matches(Env env, Object current, Value expected) {
+    if (current instanceof org.vertx.java.core.buffer.Buffer) {
+      Object object = expected.isObject() ? expected.toJavaObject() : null;
+      return object instanceof Buffer && current.equals(((Buffer) object).__toVertxBuffer());
+    }
+    return !(current instanceof byte[]) && SharedMap.fromShared(env, current).eql(expected.toValue());
+  }
+
+  /**
+   * Converts a value stored in shared data to a PHP value.
+   */
+  static Value fromShared(Env env, Object value) {
+    if (value == null) {
+      return NullValue.NULL;
+    }
+    else if (value instanceof FrozenValue) {
+      return ((FrozenValue) value).value;
+    }
+    else if (value instanceof org.vertx.java.core.buffer.Buffer) {
+      return env.wrapJava(new Buffer((org.vertx.java.core.buffer.Buffer) value));
+    }
+    return env.wrapJava(value);
+  }
+
 }
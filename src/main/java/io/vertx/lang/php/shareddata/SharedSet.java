@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vertx.lang.php.shareddata;
+
+import io.vertx.lang.php.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.Value;
+import com.caucho.quercus.lib.spl.Countable;
+
+/**
+ * Wraps a Vert.x shared set in a PHP friendly interface.
+ *
+ * Set elements must be scalars or Vertx\Buffer objects. Buffers are stored
+ * as copies of their contents, so equal buffers are the same element. Bulk
+ * operations convert all of their elements in a single call.
+ *
+ * @author Jordan Halterman
+ */
+public class SharedSet implements Countable {
+
+  private Set<Object> set;
+
+  SharedSet(Set<Object> set) {
+    this.set = set;
+  }
+
+  @Override
+  public int count() {
+    return set.size();
+  }
+
+  /**
+   * Adds an element to the set.
+   *
+   * @return Indicates whether the element was added.
+   */
+  public boolean add(Env env, Value value) {
+    Object element = toElement(env, value);
+    return element != null && set.add(element);
+  }
+
+  /**
+   * Adds all of the values in an array to the set.
+   *
+   * @return Indicates whether the set changed.
+   */
+  public boolean addAll(Env env, ArrayValue values) {
+    List<Object> elements = toElements(env, values);
+    return elements != null && set.addAll(elements);
+  }
+
+  /**
+   * Indicates whether the set contains an element.
+   */
+  public boolean contains(Env env, Value value) {
+    Object element = toElement(env, value);
+    return element != null && set.contains(element);
+  }
+
+  /**
+   * Indicates whether the set contains all of the values in an array.
+   */
+  public boolean containsAll(Env env, ArrayValue values) {
+    List<Object> elements = toElements(env, values);
+    return elements != null && set.containsAll(elements);
+  }
+
+  /**
+   * Removes an element from the set.
+   *
+   * @return Indicates whether the element was removed.
+   */
+  public boolean remove(Env env, Value value) {
+    Object element = toElement(env, value);
+    return element != null && set.remove(element);
+  }
+
+  /**
+   * Removes all elements from the set.
+   *
+   * @return The called object.
+   */
+  public SharedSet clear(Env env) {
+    set.clear();
+    return this;
+  }
+
+  /**
+   * Returns the elements of the set as a PHP array.
+   */
+  public ArrayValue toArray(Env env) {
+    ArrayValue array = new ArrayValueImpl();
+    Iterator<Object> iter = set.iterator();
+    while (iter.hasNext()) {
+      Object element = iter.next();
+      if (element instanceof BufferElement) {
+        array.append(env.wrapJava(new Buffer(((BufferElement) element).toBuffer())));
+      }
+      else {
+        array.append(SharedMap.fromShared(env, element));
+      }
+    }
+    return array;
+  }
+
+  private static List<Object> toElements(Env env, ArrayValue values) {
+    List<Object> elements = new ArrayList<Object>(values.getSize());
+    Iterator<Value> iter = values.getValueIterator(env);
+    while (iter.hasNext()) {
+      Object element = toElement(env, iter.next());
+      if (element == null) {
+        return null;
+      }
+      elements.add(element);
+    }
+    return elements;
+  }
+
+  /**
+   * Converts a PHP value to a set element. Arrays are not supported, since
+   * frozen arrays are compared by identity rather than by value.
+   */
+  private static Object toElement(Env env, Value value) {
+    value = value.toValue();
+    if (value.isObject()) {
+      Object object = value.toJavaObject();
+      if (object instanceof Buffer) {
+        return new BufferElement(((Buffer) object).__toVertxBuffer());
+      }
+    }
+    else if (!value.isArray() && !value.isNull()) {
+      return value.toJavaObject();
+    }
+    env.error("Shared set elements must be scalars or Vertx\\Buffer objects.");
+    return null;
+  }
+
+}
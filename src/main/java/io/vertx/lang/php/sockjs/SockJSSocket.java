@@ -21,8 +21,6 @@ import io.vertx.lang.php.streams.WriteStream;
 import io.vertx.lang.php.util.HandlerFactory;
 import io.vertx.lang.php.util.PhpTypes;
 
-import org.vertx.java.core.buffer.Buffer;
-
 import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Env;
 import com.caucho.quercus.env.NumberValue;
@@ -48,7 +46,7 @@ public class SockJSSocket implements ReadStream<SockJSSocket>, WriteStream<SockJ
 
   @Override
   public SockJSSocket write(Env env, Value data, StringValue enc) {
-    socket.write(new Buffer(data.toString()));
+    socket.write(PhpTypes.toVertxBuffer(env, data));
     return this;
   }
 
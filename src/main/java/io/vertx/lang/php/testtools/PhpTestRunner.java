@@ -16,6 +16,10 @@
 package io.vertx.lang.php.testtools;
 
 import io.vertx.lang.php.PhpVerticleFactory;
+import io.vertx.lang.php.buffer.BufferAllocator;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
 
 import org.vertx.testtools.VertxAssert;
 
@@ -43,6 +47,7 @@ public class PhpTestRunner {
     currentTest = test;
     String methodName = PhpVerticleFactory.container.config().getString("methodName");
     VertxAssert.initialize(PhpVerticleFactory.vertx);
+    BufferAllocator.startLeakDetection();
     currentTest.callMethod(env, env.createString("setUp"));
     currentTest.callMethod(env, env.createString(methodName));
   }
@@ -52,6 +57,12 @@ public class PhpTestRunner {
    */
   public static void cleanUp(Env env) {
     currentTest.callMethod(env, env.createString("tearDown"));
+    Throwable[] leaks = BufferAllocator.stopLeakDetection();
+    if (leaks.length > 0) {
+      StringWriter trace = new StringWriter();
+      leaks[0].printStackTrace(new PrintWriter(trace));
+      VertxAssert.fail(leaks.length + " allocated buffer(s) were not released. The first was allocated at:\n" + trace);
+    }
   }
 
 }
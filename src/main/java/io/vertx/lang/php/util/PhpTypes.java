@@ -15,7 +15,13 @@
  */
 package io.vertx.lang.php.util;
 
+import io.netty.buffer.Unpooled;
+import io.vertx.lang.php.buffer.Buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.vertx.java.core.json.JsonArray;
@@ -24,8 +30,16 @@ import org.vertx.java.core.json.JsonObject;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.ArrayValue;
 import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BinaryValue;
+import com.caucho.quercus.env.BooleanValue;
 import com.caucho.quercus.env.Callable;
+import com.caucho.quercus.env.ConstArrayValue;
+import com.caucho.quercus.env.DoubleValue;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 
 /**
@@ -41,6 +55,12 @@ import com.caucho.quercus.env.Value;
  */
 public class PhpTypes {
 
+  /**
+   * The charset which maps each byte of a PHP string to the Java char with
+   * the same value, and back again.
+   */
+  private static final Charset BYTES = Charset.forName("ISO-8859-1");
+
   private PhpTypes() {
   }
 
@@ -305,34 +325,10 @@ public class PhpTypes {
    */
   public static JsonObject arrayToJsonObject(Env env, Value array) {
     JsonObject json = new JsonObject();
-    Iterator<Value> iter = array.getKeyIterator(env);
+    Iterator<Map.Entry<Value, Value>> iter = array.getIterator(env);
     while (iter.hasNext()) {
-      Value key = iter.next();
-      Value value = array.get(key);
-      if (value.isArray()) {
-        // Determine whether this is an associative array.
-        if (PhpTypes.arrayIsAssoc(env, value)) {
-          json.putObject(key.toString(), PhpTypes.arrayToJsonObject(env, value));
-        }
-        else {
-          json.putArray(key.toString(), PhpTypes.arrayToJsonArray(env, value));
-        }
-      }
-      else if (value.isBoolean()) {
-        json.putBoolean(key.toString(), value.toBoolean());
-      }
-      else if (value.isDouble()) {
-        json.putNumber(key.toString(), value.toJavaDouble());
-      }
-      else if (value.isNumeric()) {
-        json.putNumber(key.toString(), value.toInt());
-      }
-      else if (value.isString()) {
-        json.putString(key.toString(), value.toString());
-      }
-      else {
-        json.putValue(key.toString(), value.toJavaObject());
-      }
+      Map.Entry<Value, Value> entry = iter.next();
+      json.putValue(entry.getKey().toString(), PhpTypes.toJava(env, entry.getValue()));
     }
     return json;
   }
@@ -348,34 +344,105 @@ public class PhpTypes {
     JsonArray json = new JsonArray();
     Iterator<Value> iter = array.getValueIterator(env);
     while (iter.hasNext()) {
-      Value value = iter.next();
-      if (value.isArray()) {
-        if (PhpTypes.arrayIsAssoc(env, value)) {
-          json.addObject(PhpTypes.arrayToJsonObject(env, value));
-        }
-        else {
-          json.addArray(PhpTypes.arrayToJsonArray(env, value));
-        }
-      }
-      else if (value.isBoolean()) {
-        json.addBoolean(value.toBoolean());
-      }
-      else if (value.isDouble()) {
-        json.addNumber(value.toJavaDouble());
-      }
-      else if (value.isNumeric()) {
-        json.addNumber(value.toInt());
-      }
-      else if (value.isString()) {
-        json.addString(value.toString());
-      }
-      else {
-        json.add(value.toJavaObject());
-      }
+      json.add(PhpTypes.toJava(env, iter.next()));
     }
     return json;
   }
 
+  /**
+   * Converts a PHP value to its Java equivalent.
+   *
+   * The conversion switches on the concrete Quercus value class rather than
+   * probing the value with the various is*() methods, so integers keep their
+   * full 64-bit precision and floats are never truncated. Arrays are
+   * converted to a JsonObject if they are associative, otherwise to a
+   * JsonArray.
+   *
+   * Byte strings are mapped to Java strings one byte per char, without being
+   * decoded. This is the inverse of Env.createString(), so any bytes,
+   * including invalid UTF-8, survive a round trip through JSON and back to
+   * PHP unchanged.
+   *
+   * @param env The Quercus environment.
+   * @param value A PHP value.
+   * @return A Java object suitable for storing in JSON.
+   */
+  public static Object toJava(Env env, Value value) {
+    value = value.toValue();
+    if (value instanceof BinaryValue) {
+      ByteBuffer bytes = toByteBuffer(value);
+      return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), BYTES);
+    }
+    else if (value instanceof StringValue) {
+      return value.toString();
+    }
+    else if (value instanceof LongValue) {
+      return value.toLong();
+    }
+    else if (value instanceof DoubleValue) {
+      return value.toDouble();
+    }
+    else if (value instanceof BooleanValue) {
+      return value.toBoolean();
+    }
+    else if (value instanceof ArrayValue) {
+      if (PhpTypes.arrayIsAssoc(env, value)) {
+        return PhpTypes.arrayToJsonObject(env, value);
+      }
+      return PhpTypes.arrayToJsonArray(env, value);
+    }
+    else if (value.isNull()) {
+      return null;
+    }
+    return value.toJavaObject();
+  }
+
+  /**
+   * Converts a Java object to its PHP equivalent.
+   *
+   * This is the counterpart of toJava(). Numbers, strings and booleans are
+   * converted directly to the corresponding Quercus values, and JSON
+   * structures are converted to PHP arrays. Any other object is wrapped.
+   *
+   * @param env The Quercus environment.
+   * @param value A Java object.
+   * @return A PHP value.
+   */
+  @SuppressWarnings("unchecked")
+  public static Value fromJava(Env env, Object value) {
+    if (value == null) {
+      return NullValue.NULL;
+    }
+    else if (value instanceof String) {
+      return env.createString((String) value);
+    }
+    else if (value instanceof byte[]) {
+      return env.createBinaryBuilder((byte[]) value);
+    }
+    else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return LongValue.create(((Number) value).longValue());
+    }
+    else if (value instanceof Double || value instanceof Float) {
+      return DoubleValue.create(((Number) value).doubleValue());
+    }
+    else if (value instanceof Boolean) {
+      return BooleanValue.create((Boolean) value);
+    }
+    else if (value instanceof JsonObject) {
+      return PhpTypes.arrayFromJson(env, (JsonObject) value);
+    }
+    else if (value instanceof JsonArray) {
+      return PhpTypes.arrayFromJson(env, (JsonArray) value);
+    }
+    else if (value instanceof Map) {
+      return PhpTypes.arrayFromJson(env, new JsonObject((Map<String, Object>) value));
+    }
+    else if (value instanceof List) {
+      return PhpTypes.arrayFromJson(env, new JsonArray((List<Object>) value));
+    }
+    return env.wrapJava(value);
+  }
+
   /**
    * Determines whether a PHP array is associative by looking at the keys.
    */
@@ -391,29 +458,137 @@ public class PhpTypes {
   }
 
   /**
-   * Converts a JSON object to a PHP array.
+   * Returns the raw bytes of a PHP string.
+   *
+   * Byte backed strings are wrapped without being copied or converted to a
+   * Java string, so binary data is passed through as is. Other values are
+   * converted to strings first.
+   *
+   * @param value A PHP value.
+   * @return A byte buffer over the string's bytes.
+   */
+  public static ByteBuffer toByteBuffer(Value value) {
+    value = value.toValue();
+    if (value instanceof StringBuilderValue) {
+      StringBuilderValue string = (StringBuilderValue) value;
+      return ByteBuffer.wrap(string.getBuffer(), 0, string.length());
+    }
+    return ByteBuffer.wrap(value.toStringValue().toBytes());
+  }
+
+  /**
+   * Converts a PHP value to a Vert.x buffer for writing.
+   *
+   * Vertx\Buffer objects are passed through as is. The raw bytes of strings
+   * are copied into a new buffer without being converted to a Java string
+   * and encoded, so binary data is written unchanged.
    *
    * @param env The Quercus environment.
-   * @param json A Vert.x json object.
-   * @return A populated PHP array.
+   * @param value A PHP string or Vertx\Buffer.
+   * @return A Vert.x buffer.
+   */
+  public static org.vertx.java.core.buffer.Buffer toVertxBuffer(Env env, Value value) {
+    if (value.isObject()) {
+      Object object = value.toJavaObject();
+      if (object instanceof Buffer) {
+        return ((Buffer) object).__toVertxBuffer();
+      }
+    }
+    ByteBuffer bytes = toByteBuffer(value);
+    org.vertx.java.core.buffer.Buffer buffer = new org.vertx.java.core.buffer.Buffer(bytes.remaining());
+    return buffer.appendBuffer(new org.vertx.java.core.buffer.Buffer(Unpooled.wrappedBuffer(bytes)));
+  }
+
+  /**
+   * Creates a binary PHP string from a range of a Netty buffer, copying the
+   * bytes directly into the string.
+   *
+   * @param env The Quercus environment.
+   * @param buffer A Netty buffer.
+   * @param start The index of the first byte.
+   * @param end The index after the last byte.
+   * @return A binary PHP string.
+   */
+  public static StringValue toBinaryString(Env env, io.netty.buffer.ByteBuf buffer, int start, int end) {
+    int length = end - start;
+    StringValue result = env.createBinaryBuilder(length);
+    if (result instanceof StringBuilderValue) {
+      StringBuilderValue string = (StringBuilderValue) result;
+      buffer.getBytes(start, string.getBuffer(), 0, length);
+      string.setLength(length);
+      return string;
+    }
+    byte[] bytes = new byte[length];
+    buffer.getBytes(start, bytes);
+    return env.createBinaryBuilder(bytes);
+  }
+
+  /**
+   * Converts a PHP array to an immutable constant array.
+   *
+   * Nested arrays are frozen as well. Quercus copies constant arrays lazily
+   * when they are modified, so the result can be handed out repeatedly
+   * without allocating a new array for each caller.
+   *
+   * @param env The Quercus environment.
+   * @param array A PHP array value.
+   * @return An immutable PHP array.
    */
-  public static ArrayValue arrayFromJson(Env env, JsonObject json) {
-    ArrayValue result = new ArrayValueImpl();
-    Map<String, Object> map = json.toMap();
-    Iterator<String> iter = map.keySet().iterator();
+  public static ConstArrayValue toConstArray(Env env, Value array) {
+    return PhpTypes.toConstArray(env, array, false);
+  }
+
+  /**
+   * Converts a PHP array to an immutable constant array which can be shared
+   * with other verticles.
+   *
+   * Objects are not immutable and can't safely be used from other threads,
+   * so they may not appear anywhere in a shared array.
+   *
+   * @param env The Quercus environment.
+   * @param array A PHP array value.
+   * @return An immutable PHP array, or null if the array or any nested array
+   *         contains an object.
+   */
+  public static ConstArrayValue toSharedArray(Env env, Value array) {
+    return PhpTypes.toConstArray(env, array, true);
+  }
+
+  private static ConstArrayValue toConstArray(Env env, Value array, boolean shared) {
+    ArrayValueImpl result = new ArrayValueImpl();
+    Iterator<Map.Entry<Value, Value>> iter = array.getIterator(env);
     while (iter.hasNext()) {
-      String key = iter.next();
-      Object value = map.get(key);
-      if (value instanceof JsonObject) {
-        result.put(env.createString(key), PhpTypes.arrayFromJson(env, (JsonObject) value));;
+      Map.Entry<Value, Value> entry = iter.next();
+      Value value = entry.getValue().toValue();
+      if (value.isArray()) {
+        ConstArrayValue nested = PhpTypes.toConstArray(env, value, shared);
+        if (nested == null) {
+          return null;
+        }
+        result.put(entry.getKey(), nested);
       }
-      else if (value instanceof JsonArray) {
-        result.put(env.createString(key), PhpTypes.arrayFromJson(env, (JsonArray) value));;
+      else if (shared && value.isObject()) {
+        return null;
       }
       else {
-        result.put(env.createString(key), env.wrapJava(value));
+        result.put(entry.getKey(), value);
       }
     }
+    return new ConstArrayValue(result);
+  }
+
+  /**
+   * Converts a JSON object to a PHP array.
+   *
+   * @param env The Quercus environment.
+   * @param json A Vert.x json object.
+   * @return A populated PHP array.
+   */
+  public static ArrayValue arrayFromJson(Env env, JsonObject json) {
+    ArrayValue result = new ArrayValueImpl();
+    for (String key : json.getFieldNames()) {
+      result.put(env.createString(key), PhpTypes.fromJava(env, json.getField(key)));
+    }
     return result;
   }
 
@@ -428,16 +603,7 @@ public class PhpTypes {
     ArrayValue result = new ArrayValueImpl();
     Iterator<Object> iter = json.iterator();
     while (iter.hasNext()) {
-      Object value = iter.next();
-      if (value instanceof JsonObject) {
-        result.put(PhpTypes.arrayFromJson(env, (JsonObject) value));
-      }
-      else if (value instanceof JsonArray) {
-        result.put(PhpTypes.arrayFromJson(env, (JsonArray) value));
-      }
-      else {
-        result.put(env.wrapJava(iter.next()));
-      }
+      result.put(PhpTypes.fromJava(env, iter.next()));
     }
     return result;
   }
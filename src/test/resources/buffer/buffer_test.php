@@ -18,6 +18,9 @@
 use Vertx\Test\TestRunner;
 use Vertx\Test\PhpTestCase;
 use Vertx\Buffer;
+use Vertx\BufferSearcher;
+use Vertx\CompositeBuffer;
+use Vertx\Hasher;
 
 /**
  * A Vert.x buffer test case.
@@ -134,6 +137,279 @@ class BufferTestCase extends PhpTestCase {
     $this->complete();
   }
 
+  /**
+   * Tests reading and writing binary strings.
+   */
+  public function testBytes() {
+    $binary = '';
+    for ($i = 0; $i < 256; $i++) {
+      $binary .= chr($i);
+    }
+
+    $buffer = new Buffer();
+    $buffer->appendBytes($binary);
+    $this->assertEquals($buffer->length(), 256);
+    $this->assertEquals($buffer->getBytes(), $binary);
+    $this->assertEquals($buffer->getBytes(250, 256), substr($binary, 250));
+    $this->assertEquals(strlen($buffer->getBytes(128, 130)), 2);
+
+    $buffer->setBytes(0, "\xff\xfe");
+    $this->assertEquals($buffer->getBytes(0, 3), "\xff\xfe\x02");
+    $this->complete();
+  }
+
+  /**
+   * Tests converting a buffer to an array of bytes.
+   */
+  public function testToArray() {
+    $buffer = new Buffer();
+    $buffer->appendBytes("\x00\x7f\x80\xff");
+    $this->assertEquals($buffer->toArray(), array(0, 127, 128, 255));
+    $this->complete();
+  }
+
+  /**
+   * Tests iterating over the bytes of a buffer.
+   */
+  public function testIterate() {
+    $buffer = new Buffer(self::ALPHABET);
+    $string = '';
+    foreach ($buffer as $byte) {
+      $string .= chr($byte);
+    }
+    $this->assertEquals($string, self::ALPHABET);
+    $this->complete();
+  }
+
+  /**
+   * Tests packing values into a buffer.
+   */
+  public function testPack() {
+    $buffer = new Buffer();
+    $buffer->pack('nvNVJPa4A4Z4', 1, 2, 3, 4, 5, 6, 'ab', 'cd', 'efghij');
+    $this->assertEquals($buffer->getBytes(), pack('nvNVJPa4A4Z4', 1, 2, 3, 4, 5, 6, 'ab', 'cd', 'efghij'));
+
+    $buffer = new Buffer();
+    $buffer->pack('C*', 1, 2, 255)->pack('H*', 'cafe')->pack('x2');
+    $this->assertEquals($buffer->getBytes(), "\x01\x02\xff\xca\xfe\x00\x00");
+    $this->complete();
+  }
+
+  /**
+   * Tests unpacking values from a buffer.
+   */
+  public function testUnpack() {
+    $buffer = new Buffer();
+    $buffer->pack('nNcGE', 65535, 4294967295, -1, 1.5, 2.25);
+    $values = $buffer->unpack('nshort/Nlong/cchar/Gfloat/Edouble');
+    $this->assertEquals($values['short'], 65535);
+    $this->assertEquals($values['long'], 4294967295);
+    $this->assertEquals($values['char'], -1);
+    $this->assertEquals($values['float'], 1.5);
+    $this->assertEquals($values['double'], 2.25);
+
+    $this->assertEquals($buffer->unpack('C2byte', 2), array('byte1' => 255, 'byte2' => 255));
+    $this->assertEquals($buffer->unpack('C*', 19), array());
+    $this->assertFalse($buffer->unpack('N', 16));
+    $this->complete();
+  }
+
+  /**
+   * Tests slicing a buffer.
+   */
+  public function testSlice() {
+    $buffer = new Buffer(self::ALPHABET);
+    $slice = $buffer->slice(2, 5);
+    $this->assertEquals($slice->length(), 3);
+    $this->assertEquals($slice->getBytes(), 'cde');
+    $this->assertEquals($buffer->slice(23)->getBytes(), 'xyz');
+
+    $slice->setBytes(0, 'C');
+    $this->assertEquals($buffer->getBytes(0, 5), 'abCde');
+    $buffer->setBytes(4, 'E');
+    $this->assertEquals($slice->getBytes(), 'CdE');
+
+    // Growing the buffer doesn't detach its slices.
+    $buffer->appendBytes(str_repeat(self::ALPHABET, 100));
+    $buffer->setBytes(3, 'D');
+    $this->assertEquals($slice->length(), 3);
+    $this->assertEquals($slice->getBytes(), 'CDE');
+    $this->complete();
+  }
+
+  /**
+   * Tests allocating and releasing pooled buffers.
+   */
+  public function testAllocate() {
+    $buffer = Buffer::allocate(16);
+    $this->assertEquals($buffer->length(), 0);
+    $buffer->appendBytes(self::ALPHABET);
+    $this->assertEquals($buffer->getBytes(), self::ALPHABET);
+    $buffer->release();
+    $this->assertEquals($buffer->length(), 0);
+
+    $direct = Buffer::allocate(16, array('direct' => TRUE));
+    $direct->appendInt(42);
+    $this->assertEquals($direct->getInt(0), 42);
+    $direct->release();
+
+    $unpooled = Buffer::allocate(16, array('pooled' => FALSE));
+    $unpooled->appendString(self::ALPHABET);
+    $this->assertEquals((string) $unpooled, self::ALPHABET);
+    $unpooled->release();
+    $this->complete();
+  }
+
+  /**
+   * Tests that views keep allocated memory alive until they're released.
+   */
+  public function testAllocateViews() {
+    $buffer = Buffer::allocate(16);
+    $buffer->appendBytes(self::ALPHABET);
+    $slice = $buffer->slice(0, 3);
+    $inner = $slice->slice(1, 2);
+    $parts = $buffer->split('m');
+    $composite = new CompositeBuffer($buffer);
+    $buffer->release();
+    $slice->release();
+
+    // Memory allocated now must not reuse the memory still in use by views.
+    $other = Buffer::allocate(16);
+    $other->appendBytes(str_repeat('x', 26));
+    $this->assertEquals($inner->getBytes(), 'b');
+    $this->assertEquals($parts[0]->getBytes(), 'abcdefghijkl');
+    $this->assertEquals($parts[1]->getBytes(), 'nopqrstuvwxyz');
+    $this->assertEquals($composite->getBytes(0, 3), 'abc');
+
+    $inner->release();
+    $parts[0]->release();
+    $parts[1]->release();
+    $composite->release();
+    $other->release();
+    $this->complete();
+  }
+
+  /**
+   * Tests composing buffers.
+   */
+  public function testCompositeBuffer() {
+    $first = new Buffer('abc');
+    $second = new Buffer('def');
+    $buffer = new CompositeBuffer($first, $second);
+    $buffer->appendBuffer('ghi');
+    $this->assertEquals($buffer->components(), 3);
+    $this->assertEquals($buffer->length(), 9);
+    $this->assertEquals($buffer->getBytes(), 'abcdefghi');
+    $this->assertEquals($buffer->getBytes(2, 4), 'cd');
+
+    $first->setBytes(0, 'A');
+    $this->assertEquals($buffer->getBytes(0, 3), 'Abc');
+
+    $copy = new Buffer();
+    $copy->appendBuffer($buffer);
+    $this->assertEquals((string) $copy, 'Abcdefghi');
+    $this->complete();
+  }
+
+  /**
+   * Tests searching a buffer.
+   */
+  public function testSearch() {
+    $buffer = new Buffer("foo\r\nbar\r\nbaz");
+    $this->assertEquals($buffer->indexOf("\r\n"), 3);
+    $this->assertEquals($buffer->indexOf("\r\n", 4), 8);
+    $this->assertEquals($buffer->indexOf('qux'), -1);
+    $this->assertEquals($buffer->lastIndexOf("\r\n"), 8);
+    $this->assertEquals($buffer->lastIndexOf("\r\n", 7), 3);
+    $this->assertEquals($buffer->indexOf(new Buffer('bar')), 5);
+    $this->assertTrue($buffer->startsWith('foo'));
+    $this->assertFalse($buffer->startsWith('bar'));
+    $this->assertTrue($buffer->endsWith('baz'));
+
+    $searcher = new BufferSearcher('ba');
+    $this->assertEquals($searcher->indexOf($buffer), 5);
+    $this->assertEquals($searcher->lastIndexOf($buffer), 10);
+    $this->assertEquals($buffer->indexOf($searcher, 6), 10);
+    $this->complete();
+  }
+
+  /**
+   * Tests splitting a buffer.
+   */
+  public function testSplit() {
+    $buffer = new Buffer('a,bb,,ccc');
+    $parts = $buffer->split(',');
+    $this->assertEquals(count($parts), 4);
+    $this->assertEquals($parts[0]->getBytes(), 'a');
+    $this->assertEquals($parts[1]->getBytes(), 'bb');
+    $this->assertEquals($parts[2]->length(), 0);
+    $this->assertEquals($parts[3]->getBytes(), 'ccc');
+
+    $parts = $buffer->split(',', 2);
+    $this->assertEquals(count($parts), 2);
+    $this->assertEquals($parts[1]->getBytes(), 'bb,,ccc');
+    $this->complete();
+  }
+
+  /**
+   * Tests hashing a buffer.
+   */
+  public function testHash() {
+    $buffer = new Buffer('123456789');
+    $this->assertEquals($buffer->hash('crc32'), 'cbf43926');
+    $this->assertEquals($buffer->hash('crc32c'), 'e3069283');
+    $this->assertEquals($buffer->hash('md5'), md5('123456789'));
+    $this->assertEquals($buffer->hash('sha1'), sha1('123456789'));
+    $this->assertEquals($buffer->hash('sha1', TRUE), sha1('123456789', TRUE));
+    $this->assertEquals($buffer->hash('sha256'), hash('sha256', '123456789'));
+    $this->assertEquals(strlen($buffer->hash('sha256', TRUE)), 32);
+
+    $buffer = new Buffer('hello');
+    $this->assertEquals($buffer->hash('murmur3'), '248bfa47');
+    $buffer = new Buffer('abc');
+    $this->assertEquals($buffer->hash('xxh64'), '44bc2cf5ad770999');
+    $this->complete();
+  }
+
+  /**
+   * Tests hashing data incrementally.
+   */
+  public function testHasher() {
+    $data = str_repeat(self::ALPHABET, 10);
+    $buffer = new Buffer($data);
+    $expected = $buffer->hash('xxh64');
+
+    $hasher = new Hasher('xxh64');
+    foreach (str_split($data, 7) as $chunk) {
+      $hasher->update(new Buffer($chunk));
+    }
+    $this->assertEquals($hasher->digest(), $expected);
+
+    $hasher->update('abc');
+    $this->assertEquals($hasher->digest(), '44bc2cf5ad770999');
+    $this->complete();
+  }
+
+  /**
+   * Tests creating buffers from binary strings.
+   */
+  public function testBinaryString() {
+    $binary = '';
+    for ($i = 0; $i < 256; $i++) {
+      $binary .= chr($i);
+    }
+
+    $buffer = new Buffer($binary);
+    $this->assertEquals($buffer->length(), 256);
+    $this->assertEquals($buffer->getBytes(), $binary);
+    $this->assertEquals((string) $buffer, $binary);
+
+    $copy = new Buffer($buffer);
+    $buffer->setBytes(0, "\xff");
+    $this->assertEquals($copy->getBytes(0, 1), "\x00");
+    $this->complete();
+  }
+
 }
 
 TestRunner::run(new BufferTestCase());
@@ -0,0 +1,73 @@
+<?php
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *     http://opensource.org/licenses/MIT
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+use Vertx\Test\TestRunner;
+use Vertx\Test\PhpTestCase;
+
+/**
+ * A Vert.x configuration test case.
+ */
+class ConfigTestCase extends PhpTestCase {
+
+  /**
+   * Tests that the configuration is available to the verticle.
+   */
+  public function testConfig() {
+    $config = Vertx::config();
+    $this->assertTrue(is_array($config));
+    $this->assertEquals($config['methodName'], 'testConfig');
+    $this->complete();
+  }
+
+  /**
+   * Tests that repeated configuration calls return equal arrays.
+   */
+  public function testConfigCached() {
+    $config1 = Vertx::config();
+    $config2 = Vertx::config();
+    $this->assertEquals($config1, $config2);
+    $this->complete();
+  }
+
+  /**
+   * Tests that modifying a configuration array does not affect the cache.
+   */
+  public function testConfigCopyOnWrite() {
+    $config = Vertx::config();
+    $config['methodName'] = 'foo';
+    $config['bar'] = 'baz';
+    $config = Vertx::config();
+    $this->assertEquals($config['methodName'], 'testConfigCopyOnWrite');
+    $this->assertFalse(array_key_exists('bar', $config));
+    $this->complete();
+  }
+
+  /**
+   * Tests that modifying an environment array does not affect the cache.
+   */
+  public function testEnvCopyOnWrite() {
+    $env = Vertx::env();
+    $this->assertTrue(is_array($env));
+    $env['__vertx_test__'] = 'foo';
+    $env = Vertx::env();
+    $this->assertFalse(array_key_exists('__vertx_test__', $env));
+    $this->complete();
+  }
+
+}
+
+TestRunner::run(new ConfigTestCase());
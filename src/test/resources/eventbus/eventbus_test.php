@@ -17,6 +17,7 @@
 
 use Vertx\Test\TestRunner;
 use Vertx\Test\PhpTestCase;
+use Vertx\Buffer;
 
 /**
  * A Vert.x EventBus test case.
@@ -132,6 +133,752 @@ class EventBusTestCase extends PhpTestCase {
     $this->eventBus->send(self::TEST_ADDRESS, self::$jsonMessage);
   }
 
+  /**
+   * Tests sending and replying with buffers.
+   */
+  public function testSendReplyBuffer() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $this->assertTrue($message->body instanceof Buffer);
+      $this->assertEquals($message->body->toString(), 'Hello world!');
+      $reply = new Buffer();
+      $reply->appendInt(12345);
+      $message->reply($reply);
+    });
+
+    $buffer = new Buffer('Hello world!');
+    $this->eventBus->send(self::TEST_ADDRESS, $buffer, function($reply) {
+      $this->assertTrue($reply->body instanceof Buffer);
+      $this->assertEquals($reply->body->length(), 4);
+      $this->assertEquals($reply->body->getInt(0), 12345);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests publishing a buffer.
+   */
+  public function testPublishBuffer() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $this->assertTrue($message->body instanceof Buffer);
+      $this->assertEquals($message->body->toString(), 'Hello world!');
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+    $this->eventBus->publish(self::TEST_ADDRESS, new Buffer('Hello world!'));
+  }
+
+  /**
+   * Tests forwarding a message to another address.
+   */
+  public function testForward() {
+    $forwardId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $message->forward(self::TEST_ADDRESS . '.forward', function($reply) use ($message) {
+        $message->reply($reply->body);
+      });
+    });
+
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS . '.forward', function($message) {
+      $this->assertEquals($message->body['message'], self::$jsonMessage['message']);
+      $message->reply(array('forwarded' => TRUE));
+    });
+
+    $this->eventBus->send(self::TEST_ADDRESS, self::$jsonMessage, function($reply) use ($forwardId) {
+      $this->assertTrue($reply->body['forwarded']);
+      $this->eventBus->unregisterHandler($forwardId);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests that handler IDs are unique across many registrations.
+   */
+  public function testRegisterUnregisterMany() {
+    $ids = array();
+    for ($i = 0; $i < 1000; $i++) {
+      $id = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+        $this->fail('Unregistered handler was called.');
+      });
+      $this->assertFalse(isset($ids[$id]));
+      $ids[$id] = TRUE;
+    }
+
+    foreach (array_keys($ids) as $id) {
+      $this->eventBus->unregisterHandler($id);
+    }
+
+    $this->eventBus->publish(self::TEST_ADDRESS, self::$jsonMessage);
+    Vertx::setTimer(100, function() {
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests that unregistering an unknown handler ID is a no-op.
+   */
+  public function testUnregisterUnknown() {
+    $this->eventBus->unregisterHandler('foo');
+    $this->eventBus->unregisterHandler('12345');
+    $this->complete();
+  }
+
+  /**
+   * Tests publishing a batch of messages.
+   */
+  public function testPublishBatch() {
+    $messages = array();
+    for ($i = 0; $i < 100; $i++) {
+      $messages[] = array('index' => $i);
+    }
+
+    $received = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$received, $messages) {
+      $this->assertEquals($message->body['index'], $received);
+      if (++$received == count($messages)) {
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }
+    });
+
+    $this->eventBus->publishBatch(self::TEST_ADDRESS, $messages);
+  }
+
+  /**
+   * Tests publishing a coalesced batch of messages.
+   */
+  public function testPublishBatchCoalesced() {
+    $messages = array('foo', 12345, self::$jsonMessage);
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use ($messages) {
+      $this->assertTrue(is_array($message->body));
+      $this->assertEquals(count($message->body), count($messages));
+      $this->assertEquals($message->body[0], 'foo');
+      $this->assertEquals($message->body[1], 12345);
+      $this->assertEquals($message->body[2]['message'], self::$jsonMessage['message']);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+
+    $this->eventBus->publishBatch(self::TEST_ADDRESS, $messages, TRUE);
+  }
+
+  /**
+   * Tests sending a batch of messages with a reply handler.
+   */
+  public function testSendBatch() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $message->reply($message->body * 2);
+    });
+
+    $received = 0;
+    $total = 0;
+    $this->eventBus->sendBatch(self::TEST_ADDRESS, array(1, 2, 3, 4), function($reply) use (&$received, &$total) {
+      $total += $reply->body;
+      if (++$received == 4) {
+        $this->assertEquals($total, 20);
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }
+    });
+  }
+
+  /**
+   * Tests that a request fails if no reply arrives before the timeout.
+   */
+  public function testSendTimeout() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      // Don't reply.
+    });
+
+    $this->eventBus->send(self::TEST_ADDRESS, self::$jsonMessage, function($reply, $error) {
+      $this->assertNull($reply);
+      $this->assertNotNull($error);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    }, array('timeout' => 100));
+  }
+
+  /**
+   * Tests that a request succeeds if a reply arrives before the timeout.
+   */
+  public function testSendWithinTimeout() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $message->reply($message->body);
+    });
+
+    $this->eventBus->send(self::TEST_ADDRESS, self::$jsonMessage, function($reply, $error) {
+      $this->assertNull($error);
+      $this->assertEquals($reply->body['message'], self::$jsonMessage['message']);
+      // Make sure the handler isn't called again once the timeout expires.
+      Vertx::setTimer(200, function() {
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      });
+    }, array('timeout' => 100));
+  }
+
+  /**
+   * Tests that requests beyond the in-flight limit are rejected.
+   */
+  public function testSendMaxInFlightReject() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      Vertx::setTimer(50, function() use ($message) {
+        $message->reply($message->body);
+      });
+    });
+
+    $replies = 0;
+    $rejected = 0;
+    for ($i = 0; $i < 3; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i, function($reply, $error) use (&$replies, &$rejected) {
+        if ($error !== NULL) {
+          $rejected++;
+        }
+        else {
+          $replies++;
+        }
+        if ($replies + $rejected == 3) {
+          $this->assertEquals($replies, 1);
+          $this->assertEquals($rejected, 2);
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      }, array('maxInFlight' => 1));
+    }
+  }
+
+  /**
+   * Tests that requests beyond the in-flight limit can be queued.
+   */
+  public function testSendMaxInFlightQueue() {
+    $inFlight = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$inFlight) {
+      $this->assertEquals(++$inFlight, 1);
+      Vertx::setTimer(20, function() use ($message, &$inFlight) {
+        $inFlight--;
+        $message->reply($message->body);
+      });
+    });
+
+    $received = array();
+    for ($i = 0; $i < 5; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i, function($reply, $error) use (&$received) {
+        $this->assertNull($error);
+        $received[] = $reply->body;
+        if (count($received) == 5) {
+          $this->assertEquals($received, array(0, 1, 2, 3, 4));
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      }, array('maxInFlight' => 1, 'overflow' => 'queue'));
+    }
+  }
+
+  /**
+   * Tests that requests beyond the queue limit are rejected.
+   */
+  public function testSendMaxQueued() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      Vertx::setTimer(20, function() use ($message) {
+        $message->reply($message->body);
+      });
+    });
+
+    $replies = 0;
+    $rejected = 0;
+    for ($i = 0; $i < 3; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i, function($reply, $error) use (&$replies, &$rejected) {
+        if ($error !== NULL) {
+          $rejected++;
+        }
+        else {
+          $replies++;
+        }
+        if ($replies + $rejected == 3) {
+          $this->assertEquals($replies, 2);
+          $this->assertEquals($rejected, 1);
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      }, array('maxInFlight' => 1, 'overflow' => 'queue', 'maxQueued' => 1));
+    }
+  }
+
+  /**
+   * Tests that queued requests time out while waiting to be sent. The queued
+   * request has the shorter timeout, so it must fail before it is sent.
+   */
+  public function testSendQueuedTimeout() {
+    $received = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$received) {
+      // Don't reply.
+      $received++;
+    });
+
+    $failed = 0;
+    for ($i = 0; $i < 2; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i, function($reply, $error) use (&$failed, &$received) {
+        $this->assertNull($reply);
+        $this->assertNotNull($error);
+        if (++$failed == 2) {
+          $this->assertEquals($received, 1);
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      }, array('maxInFlight' => 1, 'overflow' => 'queue', 'timeout' => $i == 0 ? 200 : 100));
+    }
+  }
+
+  /**
+   * Tests that a reply to a reply fails if it doesn't arrive before the timeout.
+   */
+  public function testReplyTimeout() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $message->reply(self::$jsonMessage, function($reply, $error) {
+        $this->assertNull($reply);
+        $this->assertNotNull($error);
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }, array('timeout' => 100));
+    });
+
+    $this->eventBus->send(self::TEST_ADDRESS, self::$jsonMessage, function($reply) {
+      // Don't reply.
+    });
+  }
+
+  /**
+   * Tests limiting the number of messages a handler handles at once.
+   */
+  public function testMaxConcurrent() {
+    $active = 0;
+    $handled = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$active, &$handled) {
+      $this->assertTrue(++$active <= 2);
+      Vertx::setTimer(20, function() use ($message, &$active, &$handled) {
+        $active--;
+        if ($message->body % 2 == 0) {
+          $message->done();
+        }
+        else {
+          $message->reply($message->body);
+        }
+        if (++$handled == 6) {
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      });
+    }, array('maxConcurrent' => 2));
+
+    for ($i = 0; $i < 6; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i);
+    }
+  }
+
+  /**
+   * Tests that messages beyond the buffer limit are rejected.
+   */
+  public function testMaxBuffered() {
+    $handled = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$handled) {
+      $handled++;
+      Vertx::setTimer(20, function() use ($message) {
+        $message->done();
+      });
+    }, NULL, array('maxConcurrent' => 1, 'maxBuffered' => 1));
+
+    for ($i = 0; $i < 2; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i);
+    }
+
+    // Rejected messages which expect a reply are replied to with a marker.
+    $this->eventBus->send(self::TEST_ADDRESS, 2, function($reply) {
+      $this->assertTrue(isset($reply->body['vertx.rejected']));
+      $this->eventBus->send(self::TEST_ADDRESS, 3, function($reply, $error) {
+        $this->assertNull($reply);
+        $this->assertNotNull($error);
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }, array('timeout' => 1000));
+    });
+  }
+
+  /**
+   * Tests that messages which are never marked as done stop counting towards
+   * the concurrency limit once the done timeout expires.
+   */
+  public function testDoneTimeout() {
+    $received = array();
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$received) {
+      $received[] = $message->body;
+      if (count($received) == 2) {
+        $this->assertEquals($received, array(0, 1));
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }
+    }, NULL, array('maxConcurrent' => 1, 'doneTimeout' => 50));
+
+    for ($i = 0; $i < 2; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i);
+    }
+  }
+
+  /**
+   * Tests pausing and resuming a handler.
+   */
+  public function testPauseResumeHandler() {
+    $received = array();
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) use (&$received) {
+      $received[] = $message->body;
+      if (count($received) == 3) {
+        $this->assertEquals($received, array(0, 1, 2));
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }
+    });
+
+    $this->eventBus->pauseHandler($this->currentHandlerId);
+    for ($i = 0; $i < 3; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, $i);
+    }
+
+    Vertx::setTimer(100, function() use (&$received) {
+      $this->assertEquals(count($received), 0);
+      $this->eventBus->resumeHandler($this->currentHandlerId);
+    });
+  }
+
+  /**
+   * Tests that pausing a local handler buffers local messages.
+   */
+  public function testPauseResumeLocalHandler() {
+    $received = array();
+    $this->currentHandlerId = $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, function($message) use (&$received) {
+      $received[] = $message->body;
+      if (count($received) == 3) {
+        $this->assertEquals($received, array(0, 1, 2));
+        $this->eventBus->unregisterHandler($this->currentHandlerId);
+        $this->complete();
+      }
+    });
+
+    $this->eventBus->pauseHandler($this->currentHandlerId);
+    for ($i = 0; $i < 3; $i++) {
+      $this->eventBus->sendLocal(self::TEST_ADDRESS, $i);
+    }
+
+    Vertx::setTimer(100, function() use (&$received) {
+      $this->assertEquals(count($received), 0);
+      $this->eventBus->resumeHandler($this->currentHandlerId);
+    });
+  }
+
+  /**
+   * Tests sending a message directly to a local handler.
+   */
+  public function testSendLocal() {
+    $message = array('id' => PHP_INT_MAX, 'values' => array(1, 2.5, 'three'));
+    $this->currentHandlerId = $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, function($received) use ($message) {
+      $this->assertNull($received->replyAddress);
+      $this->assertEqualsRecursive($received->body, $message);
+      $received->reply(array('received' => TRUE));
+    });
+
+    $this->eventBus->sendLocal(self::TEST_ADDRESS, $message, function($reply) {
+      $this->assertTrue($reply->body['received']);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests that local message bodies are copied when modified.
+   */
+  public function testSendLocalCopyOnWrite() {
+    $message = array('foo' => 'bar', 'nested' => array('baz' => 'boo'));
+    $this->currentHandlerId = $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, function($received) {
+      $body = $received->body;
+      $body['foo'] = 'baz';
+      $body['nested']['baz'] = 'bar';
+      $this->assertEquals($received->body['foo'], 'bar');
+      $this->assertEquals($received->body['nested']['baz'], 'boo');
+      $received->reply($body);
+    });
+
+    $this->eventBus->sendLocal(self::TEST_ADDRESS, $message, function($reply) use (&$message) {
+      $this->assertEquals($reply->body['foo'], 'baz');
+      $this->assertEquals($message['foo'], 'bar');
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+    $message['foo'] = 'changed';
+  }
+
+  /**
+   * Tests publishing a message directly to local handlers.
+   */
+  public function testPublishLocal() {
+    $received = 0;
+    $handler = function($message) use (&$received, &$ids) {
+      $this->assertEquals($message->body['message'], self::$jsonMessage['message']);
+      if (++$received == 2) {
+        foreach ($ids as $id) {
+          $this->eventBus->unregisterHandler($id);
+        }
+        $this->complete();
+      }
+    };
+    $ids = array(
+      $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, $handler),
+      $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, $handler),
+    );
+    $this->eventBus->publishLocal(self::TEST_ADDRESS, self::$jsonMessage);
+  }
+
+  /**
+   * Tests that each local handler receives its own copy of a published message.
+   */
+  public function testPublishLocalCopies() {
+    $received = 0;
+    $handler = function($message) use (&$received, &$ids) {
+      $body = $message->body;
+      $this->assertEquals($body['nested']['count'], 0);
+      $body['nested']['count']++;
+      $this->assertEquals($message->body['nested']['count'], 0);
+      if (++$received == 2) {
+        foreach ($ids as $id) {
+          $this->eventBus->unregisterHandler($id);
+        }
+        $this->complete();
+      }
+    };
+    $ids = array(
+      $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, $handler),
+      $this->eventBus->registerLocalHandler(self::TEST_ADDRESS, $handler),
+    );
+    $this->eventBus->publishLocal(self::TEST_ADDRESS, array('nested' => array('count' => 0)));
+  }
+
+  /**
+   * Tests that local sends fall back to the event bus without local handlers.
+   */
+  public function testSendLocalFallback() {
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $this->assertNotNull($message->replyAddress);
+      $message->reply($message->body);
+    });
+
+    $this->eventBus->sendLocal(self::TEST_ADDRESS, self::$jsonMessage, function($reply) {
+      $this->assertEquals($reply->body['message'], self::$jsonMessage['message']);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests that sharded handlers handle each key in order on a single shard.
+   */
+  public function testShardedHandler() {
+    $ids = array();
+    $shards = array();
+    $sequences = array();
+    $received = 0;
+    for ($i = 0; $i < 4; $i++) {
+      $ids[] = $this->eventBus->registerShardedHandler(self::TEST_ADDRESS, 'key', function($message) use ($i, &$ids, &$shards, &$sequences, &$received) {
+        $key = $message->body['key'];
+        if (isset($shards[$key])) {
+          $this->assertEquals($shards[$key], $i);
+          $this->assertEquals($sequences[$key] + 1, $message->body['sequence']);
+        }
+        $shards[$key] = $i;
+        $sequences[$key] = $message->body['sequence'];
+
+        if (++$received == 40) {
+          $metrics = Vertx\EventBus::shardMetrics(self::TEST_ADDRESS);
+          $this->assertEquals($metrics['instances'], 4);
+          $this->assertEquals(array_sum($metrics['counts']), 40);
+          foreach ($ids as $id) {
+            $this->eventBus->unregisterHandler($id);
+          }
+          $this->assertNull(Vertx\EventBus::shardMetrics(self::TEST_ADDRESS));
+          $this->complete();
+        }
+      }, 4);
+    }
+
+    for ($i = 0; $i < 40; $i++) {
+      $this->eventBus->send(self::TEST_ADDRESS, array('key' => 'user' . ($i % 5), 'sequence' => (int) ($i / 5)));
+    }
+  }
+
+  /**
+   * Tests sharded handlers with a key function and replies.
+   */
+  public function testShardedHandlerKeyFunction() {
+    $ids = array();
+    for ($i = 0; $i < 2; $i++) {
+      $ids[] = $this->eventBus->registerShardedHandler(self::TEST_ADDRESS, function($message) {
+        return $message->body;
+      }, function($message) use ($i) {
+        $message->reply($i);
+      }, 2);
+    }
+
+    $this->eventBus->send(self::TEST_ADDRESS, 'foo', function($reply) use ($ids) {
+      $shard = $reply->body;
+      $this->eventBus->send(self::TEST_ADDRESS, 'foo', function($reply) use ($ids, $shard) {
+        $this->assertEquals($reply->body, $shard);
+        foreach ($ids as $id) {
+          $this->eventBus->unregisterHandler($id);
+        }
+        $this->complete();
+      });
+    });
+  }
+
+  /**
+   * Tests that routing moves to another shard when the routing handler is
+   * unregistered, and that freed shards are claimed again.
+   */
+  public function testShardedHandlerHandover() {
+    $first = $this->eventBus->registerShardedHandler(self::TEST_ADDRESS, 'key', function($message) {
+      $message->reply('first');
+    }, 2);
+    $second = $this->eventBus->registerShardedHandler(self::TEST_ADDRESS, 'key', function($message) {
+      $message->reply('second');
+    }, 2);
+    $this->eventBus->unregisterHandler($first);
+
+    // With two shards 'bar' is routed to the second shard and 'foo' to the first.
+    $this->eventBus->send(self::TEST_ADDRESS, array('key' => 'bar'), function($reply) use ($second) {
+      $this->assertEquals('second', $reply->body);
+      $third = $this->eventBus->registerShardedHandler(self::TEST_ADDRESS, 'key', function($message) {
+        $message->reply('third');
+      }, 2);
+      $this->eventBus->unregisterHandler($second);
+      $this->eventBus->send(self::TEST_ADDRESS, array('key' => 'foo'), function($reply) use ($third) {
+        $this->assertEquals('third', $reply->body);
+        $this->eventBus->unregisterHandler($third);
+        $this->assertNull(Vertx\EventBus::shardMetrics(self::TEST_ADDRESS));
+        $this->complete();
+      });
+    });
+  }
+
+  /**
+   * Tests compressing large messages.
+   */
+  public function testCompression() {
+    $message = array('text' => str_repeat('Hello world! ', 1000), 'id' => PHP_INT_MAX);
+    $buffer = new Buffer(str_repeat('abcd', 1000));
+    $this->eventBus->setCompression(1024);
+    $stats = Vertx\EventBus::compressionStats();
+
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($echo) {
+      $echo->reply($echo->body);
+    });
+
+    $this->eventBus->send(self::TEST_ADDRESS, $message, function($reply) use ($message, $buffer, $stats) {
+      $this->assertEqualsRecursive($reply->body, $message);
+      $this->eventBus->send(self::TEST_ADDRESS, $buffer, function($reply) use ($buffer, $stats) {
+        $this->assertTrue($reply->body instanceof Buffer);
+        $this->assertEquals($reply->body->toString(), $buffer->toString());
+        $this->eventBus->send(self::TEST_ADDRESS, 'small', function($reply) use ($stats) {
+          $this->assertEquals($reply->body, 'small');
+
+          $current = Vertx\EventBus::compressionStats();
+          $this->assertEquals($current['compressed'] - $stats['compressed'], 4);
+          $this->assertEquals($current['decompressed'] - $stats['decompressed'], 4);
+          $this->assertTrue($current['ratio'] < 1);
+
+          $this->eventBus->setCompression(0);
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        });
+      });
+    });
+  }
+
+  /**
+   * Tests that messages which would decompress beyond the maximum length are
+   * left compressed.
+   */
+  public function testCompressionMaxLength() {
+    $this->eventBus->setCompression(1024, 6, 2048);
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($message) {
+      $this->assertTrue($message->body instanceof Buffer);
+      $this->assertTrue($message->body->length() < 4096);
+      $this->eventBus->setCompression(0);
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+    $this->eventBus->send(self::TEST_ADDRESS, str_repeat('a', 4096));
+  }
+
+  /**
+   * Tests that event bus metrics are recorded per address.
+   */
+  public function testMetrics() {
+    $address = self::TEST_ADDRESS . '.metrics';
+    $received = 0;
+    $this->currentHandlerId = $this->eventBus->registerHandler($address, function($message) use (&$received) {
+      $message->reply('pong');
+    });
+
+    for ($i = 0; $i < 3; $i++) {
+      $this->eventBus->send($address, 'ping', function($reply) use ($address, &$received) {
+        if (++$received == 3) {
+          $metrics = Vertx\EventBus::metrics();
+          $this->assertTrue(isset($metrics[$address]));
+          $this->assertEquals($metrics[$address]['sent'], 3);
+          $this->assertEquals($metrics[$address]['received'], 3);
+          $this->assertEquals($metrics[$address]['bytes'], 12);
+          $this->assertEquals($metrics[$address]['handlerTime']['count'], 3);
+          $this->assertEquals($metrics[$address]['replyTime']['count'], 3);
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+
+          // Producer side metrics are kept for addresses without handlers.
+          $this->eventBus->send($address . '.unregistered', 'ping');
+          $metrics = Vertx\EventBus::metrics();
+          $this->assertEquals($metrics[$address]['sent'], 3);
+          $this->assertEquals($metrics[$address . '.unregistered']['sent'], 1);
+          $this->assertEquals($metrics[$address . '.unregistered']['bytes'], 4);
+          $this->assertEquals($metrics[$address . '.unregistered']['received'], 0);
+          $this->complete();
+        }
+      });
+    }
+  }
+
+  /**
+   * Tests that the size of JSON messages is recorded.
+   */
+  public function testMetricsJsonBytes() {
+    $address = self::TEST_ADDRESS . '.metrics.json';
+    $this->currentHandlerId = $this->eventBus->registerHandler($address, function($message) use ($address) {
+      $metrics = Vertx\EventBus::metrics();
+      $this->assertEquals($metrics[$address]['bytes'], strlen('{"foo":"bar","baz":[1,-23]}'));
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+    $this->eventBus->send($address, array('foo' => 'bar', 'baz' => array(1, -23)));
+  }
+
+  /**
+   * Tests periodically publishing event bus metrics.
+   */
+  public function testPublishMetrics() {
+    $address = self::TEST_ADDRESS . '.metrics.publish';
+    $timerId = NULL;
+    $this->currentHandlerId = $this->eventBus->registerHandler($address, function($message) use (&$timerId) {
+      Vertx::cancelTimer($timerId);
+      $this->assertTrue(is_array($message->body));
+      $this->eventBus->unregisterHandler($this->currentHandlerId);
+      $this->complete();
+    });
+    $timerId = $this->eventBus->publishMetrics($address, 50);
+  }
+
   /**
    * Helper method for echoing messages.
    */
@@ -187,6 +934,79 @@ class EventBusTestCase extends PhpTestCase {
     $this->doEcho(1.2345);
   }
 
+  /**
+   * Tests echoing a 64-bit integer.
+   */
+  public function testEchoLong() {
+    $this->doEcho(PHP_INT_MAX);
+  }
+
+  /**
+   * Tests echoing an array of 64-bit integers and floats.
+   */
+  public function testEchoNumericArray() {
+    $this->doEcho(array(
+      'id' => PHP_INT_MAX,
+      'timestamp' => 1378800000123,
+      'negative' => -9007199254740993,
+      'ratio' => 0.1234567890123,
+      'values' => array(1, 2.5, 4294967296, -1.5e300),
+    ));
+  }
+
+  /**
+   * Tests that randomly generated numeric arrays survive a round trip.
+   */
+  public function testEchoRandomNumericArrays() {
+    $messages = array();
+    for ($i = 0; $i < 100; $i++) {
+      $message = array();
+      $size = mt_rand(1, 20);
+      for ($j = 0; $j < $size; $j++) {
+        switch (mt_rand(0, 3)) {
+          case 0:
+            $message["key$j"] = mt_rand() * mt_rand() * (mt_rand(0, 1) ? 1 : -1);
+            break;
+          case 1:
+            $message["key$j"] = mt_rand() / mt_getrandmax() * pow(10, mt_rand(-10, 10));
+            break;
+          case 2:
+            $message["key$j"] = (string) mt_rand();
+            break;
+          default:
+            $message["key$j"] = array(mt_rand(), mt_rand() / 3);
+            break;
+        }
+      }
+      $messages[] = $message;
+    }
+
+    $this->currentHandlerId = $this->eventBus->registerHandler(self::TEST_ADDRESS, function($echo) {
+      $echo->reply($echo->body);
+    });
+
+    $received = 0;
+    foreach ($messages as $message) {
+      $this->eventBus->send(self::TEST_ADDRESS, $message, function($reply) use ($message, &$received, $messages) {
+        $this->assertEqualsRecursive($reply->body, $message);
+        foreach ($message as $key => $value) {
+          $this->assertEquals(gettype($reply->body[$key]), gettype($value));
+        }
+        if (++$received == count($messages)) {
+          $this->eventBus->unregisterHandler($this->currentHandlerId);
+          $this->complete();
+        }
+      });
+    }
+  }
+
+  /**
+   * Tests echoing an array containing binary strings.
+   */
+  public function testEchoBinaryArray() {
+    $this->doEcho(array('binary' => "\x00\xff\xe9\x80", 'utf8' => "caf\xc3\xa9", 'list' => array("\xfe\x01")));
+  }
+
   /**
    * Tests echoing a boolean true.
    */
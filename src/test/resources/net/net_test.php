@@ -18,6 +18,7 @@
 use Vertx\Test\TestRunner;
 use Vertx\Test\PhpTestCase;
 use Vertx\Buffer;
+use Vertx\CompositeBuffer;
 
 /**
  * A Vert.x Net test case.
@@ -103,6 +104,131 @@ class NetTestCase extends PhpTestCase {
     });
   }
 
+  /**
+   * Tests writing buffer slices to a socket.
+   */
+  public function testWriteSlice() {
+    $this->server->connectHandler(function($socket) {
+      $socket->dataHandler(function($buffer) use ($socket) {
+        $socket->write($buffer->slice(0, 5));
+        $socket->write($buffer->slice(5));
+      });
+    });
+
+    $this->server->listen(8080, '0.0.0.0', function($server, $error) {
+      $this->assertNull($error);
+      $this->client->connect(8080, 'localhost', function($socket, $error) {
+        $this->assertNull($error);
+
+        $sent = $this->createBuffer(100);
+        $received = new Buffer();
+
+        $socket->dataHandler(function($buffer) use ($sent, $received) {
+          $received->appendBuffer($buffer);
+          if ($received->length == $sent->length) {
+            $this->assertEquals((string) $sent, (string) $received);
+            $this->complete();
+          }
+        });
+
+        $socket->write($sent);
+      });
+    });
+  }
+
+  /**
+   * Tests writing composite buffers to a socket.
+   */
+  public function testWriteCompositeBuffer() {
+    $this->server->connectHandler(function($socket) {
+      $socket->dataHandler(function($buffer) use ($socket) {
+        $socket->write(new CompositeBuffer($buffer, new Buffer('!')));
+      });
+    });
+
+    $this->server->listen(8080, '0.0.0.0', function($server, $error) {
+      $this->assertNull($error);
+      $this->client->connect(8080, 'localhost', function($socket, $error) {
+        $this->assertNull($error);
+
+        $received = new Buffer();
+        $socket->dataHandler(function($buffer) use ($received) {
+          $received->appendBuffer($buffer);
+          if ($received->length == 12) {
+            $this->assertEquals((string) $received, 'Hello world!');
+            $this->complete();
+          }
+        });
+
+        $socket->write(new CompositeBuffer(new Buffer('Hello '), new Buffer('world')));
+      });
+    });
+  }
+
+  /**
+   * Tests writing plain strings to a socket with and without an encoding.
+   */
+  public function testWriteString() {
+    $this->server->connectHandler(function($socket) {
+      $socket->dataHandler(function($buffer) use ($socket) {
+        $socket->write((string) $buffer);
+      });
+    });
+
+    $this->server->listen(8080, '0.0.0.0', function($server, $error) {
+      $this->assertNull($error);
+      $this->client->connect(8080, 'localhost', function($socket, $error) {
+        $this->assertNull($error);
+
+        $received = new Buffer();
+        $socket->dataHandler(function($buffer) use ($received) {
+          $received->appendBuffer($buffer);
+          if ($received->length == 11) {
+            $this->assertEquals((string) $received, 'Hello world');
+            $this->complete();
+          }
+        });
+
+        $socket->write('Hello ');
+        $socket->write('world', 'UTF-8');
+      });
+    });
+  }
+
+  /**
+   * Tests writing binary strings to a socket.
+   */
+  public function testWriteBinaryString() {
+    $this->server->connectHandler(function($socket) {
+      $socket->dataHandler(function($buffer) use ($socket) {
+        $socket->write($buffer->getBytes());
+      });
+    });
+
+    $this->server->listen(8080, '0.0.0.0', function($server, $error) {
+      $this->assertNull($error);
+      $this->client->connect(8080, 'localhost', function($socket, $error) {
+        $this->assertNull($error);
+
+        $sent = '';
+        for ($i = 0; $i < 256; $i++) {
+          $sent .= chr($i);
+        }
+
+        $received = new Buffer();
+        $socket->dataHandler(function($buffer) use ($sent, $received) {
+          $received->appendBuffer($buffer);
+          if ($received->length == strlen($sent)) {
+            $this->assertEquals($received->getBytes(), $sent);
+            $this->complete();
+          }
+        });
+
+        $socket->write($sent);
+      });
+    });
+  }
+
   /**
    * Tests net server methods.
    */
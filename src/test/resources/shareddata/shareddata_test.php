@@ -75,6 +75,274 @@ class SharedDataTestCase extends PhpTestCase {
     $this->doTestValue(1.2345);
   }
 
+  /**
+   * Tests setting and getting arrays in a shared map.
+   */
+  public function testMapArray() {
+    $map1 = $this->sharedData->getMap('map1');
+    $map2 = $this->sharedData->getMap('map1');
+
+    $map1['array'] = array('foo' => 'bar', 'baz' => array(1, 2, 3));
+    $array = $map2['array'];
+    $this->assertEquals($array['foo'], 'bar');
+    $this->assertEquals($array['baz'][2], 3);
+
+    $array['foo'] = 'changed';
+    $this->assertEquals($array['foo'], 'changed');
+    $shared = $map1['array'];
+    $this->assertEquals($shared['foo'], 'bar');
+    $this->complete();
+  }
+
+  /**
+   * Tests atomic operations on a shared map.
+   */
+  public function testMapAtomics() {
+    $map = $this->sharedData->getMap('atomics');
+
+    $this->assertEquals($map->increment('counter'), 1);
+    $this->assertEquals($map->increment('counter', 10), 11);
+    $this->assertEquals($map['counter'], 11);
+
+    $this->assertNull($map->putIfAbsent('first', 'foo'));
+    $this->assertEquals($map->putIfAbsent('first', 'bar'), 'foo');
+
+    $this->assertFalse($map->compareAndSet('first', 'bar', 'baz'));
+    $this->assertTrue($map->compareAndSet('first', 'foo', 'baz'));
+    $this->assertEquals($map['first'], 'baz');
+    $this->assertTrue($map->compareAndSet('unset', NULL, 'set'));
+
+    $this->assertNull($map->replace('missing', 'foo'));
+    $this->assertFalse(isset($map['missing']));
+    $this->assertEquals($map->replace('first', 'qux'), 'baz');
+
+    $calls = 0;
+    $compute = function($key) use (&$calls) {
+      $calls++;
+      return array('key' => $key);
+    };
+    $value = $map->computeIfAbsent('computed', $compute);
+    $this->assertEquals($value['key'], 'computed');
+    $map->computeIfAbsent('computed', $compute);
+    $this->assertEquals($calls, 1);
+
+    $this->assertEquals($map->getAndRemove('first'), 'qux');
+    $this->assertNull($map->getAndRemove('first'));
+    $this->complete();
+  }
+
+  /**
+   * Tests that atomic operations treat NULL values as removals and compare
+   * buffers by their contents.
+   */
+  public function testMapAtomicsNullAndBuffers() {
+    $map = $this->sharedData->getMap('atomics.null');
+
+    $this->assertNull($map->putIfAbsent('key', NULL));
+    $this->assertFalse(isset($map['key']));
+    $map['key'] = 'foo';
+    $this->assertEquals($map->putIfAbsent('key', NULL), 'foo');
+    $this->assertEquals($map->replace('key', NULL), 'foo');
+    $this->assertFalse(isset($map['key']));
+
+    $map['key'] = 'foo';
+    $this->assertTrue($map->compareAndSet('key', 'foo', NULL));
+    $this->assertFalse(isset($map['key']));
+    $this->assertNull($map->computeIfAbsent('key', function($key) {
+      return NULL;
+    }));
+    $this->assertFalse(isset($map['key']));
+
+    $map['buffer'] = new Vertx\Buffer('abc');
+    $this->assertFalse($map->compareAndSet('buffer', new Vertx\Buffer('xyz'), 'bar'));
+    $this->assertTrue($map->compareAndSet('buffer', new Vertx\Buffer('abc'), 'bar'));
+    $this->assertEquals($map['buffer'], 'bar');
+    $this->complete();
+  }
+
+  /**
+   * Tests evicting entries from a shared cache.
+   */
+  public function testCacheEviction() {
+    $cache = $this->sharedData->getCache('cache.eviction', array('maxEntries' => 2));
+    $cache['a'] = 1;
+    $cache['b'] = 2;
+    $this->assertEquals($cache['a'], 1);
+    $cache['c'] = 3;
+
+    $this->assertEquals(count($cache), 2);
+    $this->assertNull($cache['b']);
+    $this->assertEquals($cache['a'], 1);
+    $this->assertEquals($cache['c'], 3);
+
+    $stats = $cache->stats();
+    $this->assertEquals($stats['evictions'], 1);
+    $this->assertEquals($stats['hits'], 3);
+    $this->assertEquals($stats['misses'], 1);
+    $this->assertTrue($this->sharedData->removeCache('cache.eviction'));
+    $this->complete();
+  }
+
+  /**
+   * Tests that checking a key with isset() neither uses the entry nor counts
+   * as a hit or miss.
+   */
+  public function testCacheIsset() {
+    $cache = $this->sharedData->getCache('cache.isset', array('maxEntries' => 2));
+    $cache['a'] = 1;
+    $cache['b'] = 2;
+    $this->assertTrue(isset($cache['a']));
+    $this->assertFalse(isset($cache['missing']));
+    $cache['c'] = 3;
+
+    // 'a' was only checked, so it's still the least recently used entry.
+    $this->assertFalse(isset($cache['a']));
+    $this->assertTrue(isset($cache['b']));
+    $stats = $cache->stats();
+    $this->assertEquals($stats['hits'], 0);
+    $this->assertEquals($stats['misses'], 0);
+    $this->assertTrue($this->sharedData->removeCache('cache.isset'));
+    $this->complete();
+  }
+
+  /**
+   * Tests expiring entries in a shared cache.
+   */
+  public function testCacheTtl() {
+    $cache = $this->sharedData->getCache('cache.ttl', array('ttl' => 50));
+    $cache['a'] = array('foo' => 'bar');
+    $cache->put('b', 'baz', 10000);
+    $value = $cache['a'];
+    $this->assertEquals($value['foo'], 'bar');
+
+    Vertx::setTimer(100, function() use ($cache) {
+      $this->assertNull($cache['a']);
+      $this->assertEquals($cache['b'], 'baz');
+      $stats = $cache->stats();
+      $this->assertEquals($stats['expirations'], 1);
+      $this->sharedData->removeCache('cache.ttl');
+      $this->complete();
+    });
+  }
+
+  /**
+   * Tests storing and reloading an off-heap map.
+   */
+  public function testOffHeapMap() {
+    $file = sys_get_temp_dir() . '/vertx-php-offheap-test.map';
+    if (file_exists($file)) {
+      unlink($file);
+    }
+
+    $map = $this->sharedData->getOffHeapMap('offheap1', array('file' => $file, 'capacity' => 4, 'keySize' => 8, 'valueSize' => 16));
+    $map['a'] = "\x00\xff\x01";
+    $map['b'] = new Vertx\Buffer('foobar');
+    $map['c'] = 'baz';
+    unset($map['c']);
+    $this->assertEquals(count($map), 2);
+    $this->assertEquals($map['a'], "\x00\xff\x01");
+    $this->assertTrue(isset($map['b']));
+    $this->assertFalse(isset($map['c']));
+    $this->assertNull($map['c']);
+
+    $buffer = $map->getBuffer('b');
+    $this->assertEquals($buffer->length(), 6);
+    $this->assertEquals($buffer->toString(), 'foobar');
+    $buffer->setBytes(0, 'F');
+    $this->assertEquals($map['b'], 'foobar');
+
+    // Removed slots are reused, so the map never fills with deleted keys.
+    for ($i = 0; $i < 20; $i++) {
+      $map['c'] = 'baz';
+      $map['d'] = 'qux';
+      unset($map['c']);
+      unset($map['d']);
+    }
+    $this->assertEquals(count($map), 2);
+    $this->assertNull($map['c']);
+    $this->assertTrue($this->sharedData->removeOffHeapMap('offheap1'));
+
+    $map = $this->sharedData->getOffHeapMap('offheap2', array('file' => $file, 'readOnly' => TRUE));
+    $this->assertEquals($map->capacity(), 4);
+    $this->assertEquals(count($map), 2);
+    $this->assertEquals($map['b'], 'foobar');
+    $this->sharedData->removeOffHeapMap('offheap2');
+    $this->complete();
+  }
+
+  /**
+   * Tests adding and removing shared set elements.
+   */
+  public function testSet() {
+    $set1 = $this->sharedData->getSet('set1');
+    $set2 = $this->sharedData->getSet('set1');
+
+    $this->assertTrue($set1->add('foo'));
+    $this->assertFalse($set2->add('foo'));
+    $this->assertTrue($set1->addAll(array('bar', 12345)));
+    $this->assertEquals(count($set2), 3);
+    $this->assertTrue($set2->contains(12345));
+    $this->assertTrue($set2->containsAll(array('foo', 'bar')));
+    $this->assertFalse($set2->containsAll(array('foo', 'baz')));
+
+    $this->assertTrue($set2->remove('bar'));
+    $this->assertFalse($set1->contains('bar'));
+    $array = $set1->toArray();
+    $this->assertEquals(count($array), 2);
+    $this->assertTrue(in_array('foo', $array));
+    $this->assertTrue($this->sharedData->removeSet('set1'));
+    $this->complete();
+  }
+
+  /**
+   * Tests that buffers in a shared set are compared by their contents.
+   */
+  public function testSetBuffers() {
+    $set = $this->sharedData->getSet('set.buffers');
+    $this->assertTrue($set->add(new Vertx\Buffer('foo')));
+    $this->assertFalse($set->add(new Vertx\Buffer('foo')));
+    $this->assertTrue($set->contains(new Vertx\Buffer('foo')));
+    $this->assertFalse($set->contains(new Vertx\Buffer('bar')));
+    $this->assertTrue($set->containsAll(array(new Vertx\Buffer('foo'))));
+    $this->assertEquals(count($set), 1);
+
+    $array = $set->toArray();
+    $this->assertTrue($array[0] instanceof Vertx\Buffer);
+    $this->assertEquals($array[0]->toString(), 'foo');
+
+    $this->assertTrue($set->remove(new Vertx\Buffer('foo')));
+    $this->assertEquals(count($set), 0);
+    $this->assertTrue($this->sharedData->removeSet('set.buffers'));
+    $this->complete();
+  }
+
+  /**
+   * Tests adding and removing integers in a shared long set.
+   */
+  public function testLongSet() {
+    $set1 = $this->sharedData->getLongSet('longset1');
+    $set2 = $this->sharedData->getLongSet('longset1');
+
+    $this->assertTrue($set1->add(0));
+    $this->assertTrue($set1->add(9007199254740993));
+    $this->assertFalse($set2->add(0));
+    $this->assertEquals($set1->addAll(range(1, 100)), 100);
+    $this->assertEquals(count($set2), 102);
+    $this->assertTrue($set2->contains(9007199254740993));
+    $this->assertFalse($set2->contains(101));
+    $this->assertTrue($set2->containsAll(array(0, 50, 100)));
+
+    for ($i = 1; $i <= 50; $i++) {
+      $this->assertTrue($set2->remove($i));
+    }
+    $this->assertFalse($set1->remove(1));
+    $this->assertEquals(count($set1), 52);
+    $this->assertTrue($set1->containsAll(range(51, 100)));
+    $this->assertEquals(count($set1->toArray()), 52);
+    $this->assertTrue($this->sharedData->removeLongSet('longset1'));
+    $this->complete();
+  }
+
   private function doTestValue($value) {
     $map1 = $this->sharedData->getMap('map1');
     $this->assertNotNull($map1);